@@ -0,0 +1,99 @@
+package mandelbrot;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The number of steps of a frame of the default view with the bailout test on
+ * the squared modulus, compared with the former test |x + y| < 100. Both loops
+ * are plain, without the shortcuts of MandelbrotKernel, so that only the test
+ * differs. The score is in frames per second; the steps per frame are the
+ * steps per second divided by the score.
+ *
+ * @author arthu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class BailoutBenchmark {
+
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 300;
+    private static final int MAX_STEPS = 1000;
+
+    @Param({"modulus", "sum"})
+    public String bailout;
+
+    private double[] xs;
+    private double[] ys;
+    private int[] steps;
+
+    @Setup
+    public void setUp() {
+        Viewport viewport = View.DEFAULT.getViewport(WIDTH, HEIGHT);
+        xs = new double[WIDTH];
+        for (int col = 0; col < WIDTH; col++) {
+            xs[col] = viewport.getX(col);
+        }
+        ys = new double[HEIGHT];
+        for (int line = 0; line < HEIGHT; line++) {
+            ys[line] = viewport.getY(line);
+        }
+        steps = new int[WIDTH];
+    }
+
+    @Benchmark
+    public void iterateFrame(StepCounter counter, Blackhole blackhole) {
+        boolean modulus = bailout.equals("modulus");
+        for (double y : ys) {
+            for (int col = 0; col < WIDTH; col++) {
+                steps[col] = modulus ? iterateWithModulus(xs[col], y) : iterateWithSum(xs[col], y);
+            }
+            counter.add(steps);
+            blackhole.consume(steps);
+        }
+    }
+
+    private static int iterateWithModulus(double x, double y) {
+        double xCurrent = 0;
+        double yCurrent = 0;
+        double xSquared = 0;
+        double ySquared = 0;
+        int step = 0;
+        while (step < MAX_STEPS && xSquared + ySquared <= 4) {
+            yCurrent = 2 * xCurrent * yCurrent + y;
+            xCurrent = xSquared - ySquared + x;
+            xSquared = xCurrent * xCurrent;
+            ySquared = yCurrent * yCurrent;
+            step++;
+        }
+        return step;
+    }
+
+    private static int iterateWithSum(double x, double y) {
+        double xCurrent = 0;
+        double yCurrent = 0;
+        int step = 0;
+        while (step < MAX_STEPS && Math.abs(xCurrent + yCurrent) < 100) {
+            double xNext = xCurrent * xCurrent - yCurrent * yCurrent + x;
+            yCurrent = 2 * xCurrent * yCurrent + y;
+            xCurrent = xNext;
+            step++;
+        }
+        return step;
+    }
+}
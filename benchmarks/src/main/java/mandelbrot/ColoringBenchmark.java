@@ -0,0 +1,66 @@
+package mandelbrot;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The coloring of the escape data of the default view, with the palette
+ * alone, with smooth coloring and with histogram equalization, in pixels per
+ * second.
+ *
+ * @author arthu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ColoringBenchmark {
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+
+    @Param({"palette", "smooth", "histogram"})
+    public String coloring;
+
+    private World world;
+    private IterationBuffer iterations;
+    private RenderTarget target;
+
+    @Setup
+    public void setUp() {
+        world = new World();
+        world.setMaxSteps(1000);
+        iterations = new IterationBuffer(WIDTH, HEIGHT);
+        target = new RenderTarget(WIDTH, HEIGHT);
+        TileRenderer renderer = new TileRenderer(Runtime.getRuntime().availableProcessors());
+        renderer.render(world, View.DEFAULT.getViewport(WIDTH, HEIGHT), iterations, target).join();
+        renderer.shutdown();
+        if (coloring.equals("smooth")) {
+            world.getColorizer().toggleSmoothColoring();
+        } else if (coloring.equals("histogram")) {
+            world.getColorizer().toggleHistogramEqualization();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WIDTH * HEIGHT)
+    public void colorize(Blackhole blackhole) {
+        // With histogram equalization, the histogram is computed again.
+        world.colorize(iterations, target);
+        blackhole.consume(target.pixels);
+    }
+}
@@ -0,0 +1,80 @@
+package mandelbrot;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A whole frame of the default and seahorse views with each strategy of the
+ * renderer, in pixels per second. The steps are those of every pixel of the
+ * frame, including the ones filled without iterating, so that the strategies
+ * compare with FULL.
+ *
+ * @author arthu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class FrameBenchmark {
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+
+    // The names of TileRenderer.Strategy, which is not visible to the code
+    // generated by JMH.
+    @Param({"FULL", "MARIANI_SILVER", "PROGRESSIVE", "PRIORITY"})
+    public String strategy;
+
+    @Param({"DEFAULT", "SEAHORSE"})
+    public View view;
+
+    // 0 for one thread per core.
+    @Param("0")
+    public int threads;
+
+    private World world;
+    private Viewport viewport;
+    private TileRenderer renderer;
+    private IterationBuffer iterations;
+    private RenderTarget target;
+
+    @Setup
+    public void setUp() {
+        world = new World();
+        world.setMaxSteps(1000);
+        viewport = view.getViewport(WIDTH, HEIGHT);
+        renderer = new TileRenderer(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+        renderer.setStrategy(TileRenderer.Strategy.valueOf(strategy));
+        iterations = new IterationBuffer(WIDTH, HEIGHT);
+        target = new RenderTarget(WIDTH, HEIGHT);
+    }
+
+    @TearDown
+    public void tearDown() {
+        renderer.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WIDTH * HEIGHT)
+    public void renderFrame(StepCounter counter, Blackhole blackhole) {
+        iterations.clear();
+        renderer.render(world, viewport, iterations, target).join();
+        counter.add(iterations.steps);
+        blackhole.consume(target.pixels);
+    }
+}
@@ -0,0 +1,82 @@
+package mandelbrot;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The kernel of each drawing type on a square of points of each view, line
+ * after line, as the tiles compute them. The scores are in pixels per second,
+ * the steps per second are given by the counter; run with
+ * -jvmArgsAppend -Dmandelbrot.vector=false to measure the scalar Mandelbrot
+ * kernel instead of the vector one.
+ *
+ * @author arthu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelBenchmark {
+
+    // Side of the square of points.
+    private static final int SIZE = 256;
+
+    // The names of World.DrawingType, which is not visible to the code
+    // generated by JMH.
+    @Param({"FLAT", "HYPERBOLIC", "MANDELBROT", "TETRATION", "TETRATION_SQRT2", "HEART", "JULIA", "BURNING_SHIP",
+        "MULTIBROT", "FORMULA"})
+    public String type;
+
+    @Param
+    public View view;
+
+    @Param("1000")
+    public int maxSteps;
+
+    private FractalKernel kernel;
+    private double[] xs;
+    private double[] ys;
+    private int[] steps;
+    private float[] norms;
+
+    @Setup
+    public void setUp() {
+        World world = new World();
+        world.setType(World.DrawingType.valueOf(type));
+        world.setMaxSteps(maxSteps);
+        Viewport viewport = view.getViewport(SIZE, SIZE);
+        kernel = world.createKernel(viewport);
+        xs = new double[SIZE];
+        ys = new double[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            xs[i] = kernel.isRelative() ? viewport.getDeltaX(i) : viewport.getX(i);
+            ys[i] = kernel.isRelative() ? viewport.getDeltaY(i) : viewport.getY(i);
+        }
+        steps = new int[SIZE];
+        norms = new float[SIZE];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE * SIZE)
+    public void iterateSquare(StepCounter counter, Blackhole blackhole) {
+        for (int line = 0; line < SIZE; line++) {
+            kernel.iterateRow(xs, 0, ys[line], SIZE, steps, norms, 0);
+            counter.add(steps);
+            blackhole.consume(norms);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package mandelbrot;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the steps computed by a benchmark; JMH reports them per second next
+ * to the pixels per second of the benchmark itself.
+ *
+ * @author arthu
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class StepCounter {
+
+    public long steps;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        steps = 0;
+    }
+
+    void add(int[] values) {
+        long sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        steps += sum;
+    }
+}
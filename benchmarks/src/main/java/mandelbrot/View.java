@@ -0,0 +1,32 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+
+/**
+ * A standard point of view of the benchmarks, given by its center and the
+ * width it shows.
+ *
+ * @author arthu
+ */
+public enum View {
+    // The whole Mandelbrot set, as the batch renderer shows it by default.
+    DEFAULT("-0.5", "0", 4),
+    // Deep in the seahorse valley: the Mandelbrot set needs perturbation.
+    SEAHORSE("-0.743643887037158704752191506114774", "0.131825904205311970493132056385139", 1e-10),
+    // Inside the bulb of period 3, where no point escapes.
+    INTERIOR("-0.1225", "0.7449", 0.04);
+
+    private final BigDecimal xCenter;
+    private final BigDecimal yCenter;
+    private final double viewWidth;
+
+    View(String xCenter, String yCenter, double viewWidth) {
+        this.xCenter = new BigDecimal(xCenter);
+        this.yCenter = new BigDecimal(yCenter);
+        this.viewWidth = viewWidth;
+    }
+
+    Viewport getViewport(int width, int height) {
+        return Viewport.centeredOn(width, height, xCenter, yCenter, width / viewWidth);
+    }
+}
@@ -0,0 +1,386 @@
+package mandelbrot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Render one image without any display, for instance on a render node.
+ * The image is computed in horizontal strips by the tile renderer on all the
+ * cores; each finished strip is appended to a PNG image or to a file of raw
+ * iteration data while the next one is computed, so only two strips are ever
+ * in memory. A checkpoint file next to the output records the strips that are
+ * written; a render that was interrupted resumes from there when it is run
+ * again with the same arguments. Progress and throughput are reported on the
+ * standard output.
+ *
+ * @author arthu
+ */
+class BatchRenderer {
+
+    private static final long PROGRESS_PERIOD = 1000; // milliseconds
+    private static final long POLLING_PERIOD = 20; // milliseconds
+    // Default number of pixels of a strip.
+    private static final int STRIP_PIXELS = 1 << 22;
+
+    enum Format {
+        PNG,
+        RAW
+    }
+
+    private World.DrawingType type;
+    private double juliaX;
+    private double juliaY;
+    private int degree;
+    private String formula;
+    private BigDecimal xCenter;
+    private BigDecimal yCenter;
+    private double zoom;
+    private int width;
+    private int height;
+    private int maxSteps;
+    private int ramp;
+    private boolean smoothColoring;
+    private TileRenderer.Strategy strategy;
+    private int nbThreads;
+    private Format format;
+    private File output;
+    private int stripHeight;
+
+    private long nextReport;
+    private long nbSteps;
+
+    public BatchRenderer() {
+        type = World.DrawingType.MANDELBROT;
+        juliaX = -0.8;
+        juliaY = 0.156;
+        degree = 3;
+        formula = World.DEFAULT_FORMULA;
+        xCenter = new BigDecimal("-0.5");
+        yCenter = BigDecimal.ZERO;
+        width = 1000;
+        height = 1000;
+        zoom = 0;
+        maxSteps = 4000;
+        ramp = 0;
+        smoothColoring = false;
+        strategy = TileRenderer.Strategy.MARIANI_SILVER;
+        nbThreads = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Render the image described by the arguments; exits with a non-zero
+     * status when they are not valid or when the file cannot be written.
+     *
+     * @param args
+     */
+    static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        BatchRenderer renderer = new BatchRenderer();
+        try {
+            renderer.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+        try {
+            renderer.render();
+        } catch (IOException e) {
+            System.err.println("Cannot write " + renderer.output + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static void printUsage() {
+        System.err.println("Usage: render [options] --output <file>");
+        System.err.println("  --type <type>          MANDELBROT, JULIA, BURNING_SHIP, MULTIBROT, FORMULA, TETRATION, TETRATION_SQRT2, HEART, FLAT or HYPERBOLIC (MANDELBROT)");
+        System.err.println("  --julia <x>,<y>        constant of the Julia set (-0.8,0.156)");
+        System.err.println("  --degree <n>           degree of the Multibrot set (3)");
+        System.err.println("  --formula <formula>    formula of the FORMULA type, as z^3 + c*sin(z) (" + World.DEFAULT_FORMULA + ")");
+        System.err.println("  --center <x>,<y>       point at the center of the image (-0.5,0)");
+        System.err.println("  --zoom <pixels>        pixels per unit (the whole width shows 4 units)");
+        System.err.println("  --size <w>x<h>         size of the image in pixels (1000x1000)");
+        System.err.println("  --max-steps <n>        maximum number of steps (4000)");
+        System.err.println("  --palette <name>       " + String.join(", ", World.RAMP_NAMES) + " (default)");
+        System.err.println("  --smooth               smooth coloring");
+        System.err.println("  --strategy <strategy>  FULL, MARIANI_SILVER, PROGRESSIVE or PRIORITY (MARIANI_SILVER)");
+        System.err.println("  --threads <n>          number of threads (all the cores)");
+        System.err.println("  --format <format>      png or raw (from the extension of the output)");
+        System.err.println("  --strip-height <n>     number of lines computed at once (about 4 Mpixels)");
+    }
+
+    void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--smooth")) {
+                smoothColoring = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value after " + option);
+            }
+            String value = args[++i];
+            try {
+                switch (option) {
+                case "--type":
+                    type = World.DrawingType.valueOf(value.toUpperCase());
+                    break;
+                case "--julia":
+                    String[] constant = value.split(",");
+                    if (constant.length != 2) {
+                        throw new IllegalArgumentException("The constant must be given as <x>,<y>: " + value);
+                    }
+                    juliaX = Double.parseDouble(constant[0].trim());
+                    juliaY = Double.parseDouble(constant[1].trim());
+                    break;
+                case "--degree":
+                    degree = Integer.parseInt(value);
+                    break;
+                case "--formula":
+                    // Only checked here, it is compiled if the type needs it.
+                    FormulaParser.translate(value);
+                    formula = value;
+                    break;
+                case "--center":
+                    String[] coordinates = value.split(",");
+                    if (coordinates.length != 2) {
+                        throw new IllegalArgumentException("The center must be given as <x>,<y>: " + value);
+                    }
+                    xCenter = new BigDecimal(coordinates[0].trim());
+                    yCenter = new BigDecimal(coordinates[1].trim());
+                    break;
+                case "--zoom":
+                    zoom = Double.parseDouble(value);
+                    break;
+                case "--size":
+                    String[] sizes = value.toLowerCase().split("x");
+                    if (sizes.length != 2) {
+                        throw new IllegalArgumentException("The size must be given as <w>x<h>: " + value);
+                    }
+                    width = Integer.parseInt(sizes[0]);
+                    height = Integer.parseInt(sizes[1]);
+                    break;
+                case "--max-steps":
+                    maxSteps = Integer.parseInt(value);
+                    break;
+                case "--palette":
+                    ramp = Arrays.asList(World.RAMP_NAMES).indexOf(value);
+                    if (ramp < 0) {
+                        throw new IllegalArgumentException("Unknown palette: " + value);
+                    }
+                    break;
+                case "--strategy":
+                    strategy = TileRenderer.Strategy.valueOf(value.toUpperCase());
+                    break;
+                case "--threads":
+                    nbThreads = Integer.parseInt(value);
+                    break;
+                case "--format":
+                    format = Format.valueOf(value.toUpperCase());
+                    break;
+                case "--output":
+                    output = new File(value);
+                    break;
+                case "--strip-height":
+                    stripHeight = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number after " + option + ": " + value);
+            }
+        }
+        if (output == null) {
+            throw new IllegalArgumentException("No output file.");
+        }
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        }
+        if (stripHeight == 0) {
+            stripHeight = Math.max(1, STRIP_PIXELS / width);
+        }
+        stripHeight = Math.min(stripHeight, height);
+        if (stripHeight < 1 || (long) stripHeight * width > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid strip height: " + stripHeight);
+        }
+        if (degree < 2) {
+            throw new IllegalArgumentException("The degree must be at least 2: " + degree);
+        }
+        if (maxSteps < 1 || nbThreads < 1 || zoom < 0) {
+            throw new IllegalArgumentException("The zoom, the maximum number of steps and the number of threads must be positive.");
+        }
+        if (zoom == 0) {
+            zoom = width / 4.0;
+        }
+        if (format == null) {
+            format = output.getName().toLowerCase().endsWith(".png") ? Format.PNG : Format.RAW;
+        }
+    }
+
+    void render() throws IOException {
+        World world = new World();
+        if (type == World.DrawingType.FORMULA) {
+            world.setFormula(formula);
+        }
+        world.setType(type);
+        world.setJuliaConstant(juliaX, juliaY);
+        world.setMultibrotDegree(degree);
+        world.setMaxSteps(maxSteps);
+        world.selectRamp(ramp);
+        if (smoothColoring) {
+            world.getColorizer().toggleSmoothColoring();
+            world.setBailoutRadius(World.SMOOTH_BAILOUT_RADIUS);
+        }
+
+        Viewport viewport = Viewport.centeredOn(width, height, xCenter, yCenter, zoom);
+        TileRenderer renderer = new TileRenderer(nbThreads);
+        renderer.setStrategy(strategy);
+
+        File checkpointFile = new File(output.getPath() + ".checkpoint");
+        Properties state = loadCheckpoint(checkpointFile);
+        // The tetrations and the flat types do not iterate maxSteps times.
+        int kernelMaxSteps = world.getKernelMaxSteps();
+        try (StripWriter writer = format == Format.PNG
+                ? new PngStripWriter(output, width, height, state)
+                : new RawStripWriter(output, width, height, kernelMaxSteps, state)) {
+            int firstLine = writer.getNbLinesWritten();
+            if (firstLine > 0) {
+                System.out.println("Resuming " + output + " at line " + firstLine + ".");
+            }
+            System.out.println("Rendering " + width + "x" + height + " " + type + " at " + xCenter + ", " + yCenter
+                    + ", zoom " + zoom + ", on " + nbThreads + " threads, " + stripHeight + " lines per strip.");
+
+            // Two strips: one is computed while the other one is written.
+            IterationBuffer[] iterations = new IterationBuffer[2];
+            RenderTarget[] targets = new RenderTarget[2];
+            long totalPixels = (long) width * (height - firstLine);
+            long nbPixelsDone = 0;
+            nbSteps = 0;
+            long start = System.nanoTime();
+            nextReport = start + PROGRESS_PERIOD * 1000000;
+            int previousLines = 0;
+            int current = 0;
+            for (int line = firstLine; line < height; line += stripHeight) {
+                int nbLines = Math.min(stripHeight, height - line);
+                if (iterations[current] == null) {
+                    iterations[current] = new IterationBuffer(width, stripHeight);
+                    targets[current] = new RenderTarget(width, stripHeight);
+                } else {
+                    iterations[current].clear();
+                }
+                TileRenderer.Job job = renderer.render(world, viewport.getStrip(line, nbLines),
+                        iterations[current], targets[current]);
+
+                int previous = 1 - current;
+                if (previousLines > 0) {
+                    writeStrip(writer, iterations[previous], targets[previous], previousLines, checkpointFile);
+                }
+                waitFor(job, start, nbPixelsDone, totalPixels);
+                nbPixelsDone += (long) width * nbLines;
+                previousLines = nbLines;
+                current = previous;
+            }
+            if (previousLines > 0) {
+                writeStrip(writer, iterations[1 - current], targets[1 - current], previousLines, checkpointFile);
+            }
+            writer.finish();
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Rendered %d pixels in %.2f s, %.2f Mpixels/s, %.1f Msteps/s.%n",
+                    nbPixelsDone, seconds, nbPixelsDone / seconds / 1e6, nbSteps / seconds / 1e6);
+        }
+        Files.deleteIfExists(checkpointFile.toPath());
+        System.out.printf("Wrote %s, %d bytes.%n", output, output.length());
+    }
+
+    /**
+     * Wait for the job of a strip, and report the progress of the image.
+     *
+     * @param job
+     * @param start
+     * @param nbPixelsBefore the number of pixels of the previous strips.
+     * @param totalPixels
+     */
+    private void waitFor(TileRenderer.Job job, long start, long nbPixelsBefore, long totalPixels) {
+        while (!job.isDone()) {
+            try {
+                Thread.sleep(POLLING_PERIOD);
+            } catch (InterruptedException e) {
+                job.cancel();
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long now = System.nanoTime();
+            if (now < nextReport) {
+                continue;
+            }
+            nextReport = now + PROGRESS_PERIOD * 1000000;
+            long nbPixels = nbPixelsBefore + job.getNbPixelsDone();
+            double seconds = (now - start) / 1e9;
+            System.out.printf("%5.1f %% %8.2f Mpixels/s%n", 100.0 * Math.min(nbPixels, totalPixels) / totalPixels,
+                    nbPixels / seconds / 1e6);
+        }
+        job.join();
+    }
+
+    /**
+     * Append a finished strip to the file, then save the checkpoint.
+     */
+    private void writeStrip(StripWriter writer, IterationBuffer iterations, RenderTarget target, int nbLines,
+            File checkpointFile) throws IOException {
+        writer.writeStrip(iterations, target, nbLines);
+        for (int i = 0; i < nbLines * width; i++) {
+            if (iterations.steps[i] > 0) {
+                nbSteps += iterations.steps[i];
+            }
+        }
+
+        Properties state = writer.getState();
+        state.setProperty("parameters", getParameters());
+        File temporary = new File(checkpointFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temporary)) {
+            state.store(out, "Progress of " + output.getName());
+        }
+        Files.move(temporary.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param checkpointFile
+     * @return the state of the writer saved by a previous run with the same
+     * parameters, or null to start from the beginning.
+     * @throws IOException
+     */
+    private Properties loadCheckpoint(File checkpointFile) throws IOException {
+        if (!checkpointFile.exists() || !output.exists()) {
+            return null;
+        }
+        Properties state = new Properties();
+        try (InputStream in = new FileInputStream(checkpointFile)) {
+            state.load(in);
+        }
+        if (!getParameters().equals(state.getProperty("parameters"))) {
+            System.out.println("Ignoring " + checkpointFile + ", it was saved with other parameters.");
+            return null;
+        }
+        return state;
+    }
+
+    /**
+     * @return everything that changes the content of the file.
+     */
+    private String getParameters() {
+        return type + " " + juliaX + "," + juliaY + " " + degree + " " + formula + " " + xCenter + " " + yCenter + " " + zoom + " " + width + "x" + height + " " + maxSteps
+                + " " + World.RAMP_NAMES[ramp] + " " + smoothColoring + " " + strategy + " " + format + " " + stripHeight;
+    }
+}
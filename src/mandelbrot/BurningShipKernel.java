@@ -0,0 +1,55 @@
+package mandelbrot;
+
+/**
+ * The suite z(n+1) = (|Re(z(n))| + i |Im(z(n))|)^2 + c, the Burning Ship.
+ * The ship is upside down with the usual orientation of the imaginary axis.
+ *
+ * @author arthu
+ */
+class BurningShipKernel implements FractalKernel {
+
+    private final int maxSteps;
+    private final double bailoutRadius;
+
+    public BurningShipKernel(int maxSteps, double bailoutRadius) {
+        this.maxSteps = maxSteps;
+        this.bailoutRadius = bailoutRadius;
+    }
+
+    @Override
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    @Override
+    public FractalKernel withMaxSteps(int newMaxSteps) {
+        return new BurningShipKernel(newMaxSteps, bailoutRadius);
+    }
+
+    @Override
+    public int iterate(double x, double y, float[] norms, int index) {
+        double bailoutSquared = bailoutRadius * bailoutRadius;
+        double xCurrent = 0;
+        double yCurrent = 0;
+        double xSquared = 0;
+        double ySquared = 0;
+
+        int step = 0;
+        while (step < maxSteps && xSquared + ySquared <= bailoutSquared) {
+            yCurrent = 2 * Math.abs(xCurrent * yCurrent) + y;
+            xCurrent = xSquared - ySquared + x;
+            xSquared = xCurrent * xCurrent;
+            ySquared = yCurrent * yCurrent;
+            step++;
+        }
+        norms[index] = step < maxSteps ? (float) (xSquared + ySquared) : Float.NaN;
+        return step;
+    }
+
+    @Override
+    public void iterateRow(double[] xs, int xsOffset, double y, int length, int[] steps, float[] norms, int offset) {
+        for (int i = 0; i < length; i++) {
+            steps[offset + i] = iterate(xs[xsOffset + i], y, norms, offset + i);
+        }
+    }
+}
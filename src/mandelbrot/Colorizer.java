@@ -0,0 +1,165 @@
+package mandelbrot;
+
+import java.awt.Color;
+
+/**
+ * Turn the escape data of the pixels into colors.
+ * This is the cheap pass that runs after the fractal math: it applies the
+ * palette, smooth coloring, color cycling and histogram equalization.
+ *
+ * @author arthu
+ */
+class Colorizer {
+
+    private static final int BLACK = Color.black.getRGB();
+    private static final double LOG_2 = Math.log(2);
+
+    private boolean smoothColoring;
+    private boolean histogramEqualization;
+    // Shift of the palette, in steps, used to cycle the colors.
+    private int cycleOffset;
+
+    // Replaced as a whole, so that the tiles that color pixels meanwhile
+    // never see a palette with the equalization of another one.
+    private volatile Scale scale;
+
+    /**
+     * A palette, and for each of its numbers of steps, the position in the
+     * palette after histogram equalization; the last value is maxSteps.
+     */
+    private static class Scale {
+
+        final Palette palette;
+        final double[] equalizedSteps;
+
+        Scale(Palette palette, double[] equalizedSteps) {
+            this.palette = palette;
+            this.equalizedSteps = equalizedSteps;
+        }
+    }
+
+    public Colorizer(Palette newPalette) {
+        smoothColoring = false;
+        histogramEqualization = false;
+        cycleOffset = 0;
+        setPalette(newPalette);
+    }
+
+    /**
+     * Copy the settings of another colorizer; the copy may then be changed
+     * or equalized without changing the original one.
+     *
+     * @param other
+     */
+    public Colorizer(Colorizer other) {
+        smoothColoring = other.smoothColoring;
+        histogramEqualization = other.histogramEqualization;
+        cycleOffset = other.cycleOffset;
+        scale = other.scale;
+    }
+
+    Palette getPalette() {
+        return scale.palette;
+    }
+
+    final void setPalette(Palette newPalette) {
+        double[] equalizedSteps = new double[newPalette.getMaxSteps() + 1];
+        for (int step = 0; step < equalizedSteps.length; step++) {
+            equalizedSteps[step] = step;
+        }
+        scale = new Scale(newPalette, equalizedSteps);
+    }
+
+    void toggleSmoothColoring() {
+        smoothColoring = !smoothColoring;
+    }
+
+    boolean usesSmoothColoring() {
+        return smoothColoring;
+    }
+
+    void toggleHistogramEqualization() {
+        histogramEqualization = !histogramEqualization;
+    }
+
+    boolean usesHistogramEqualization() {
+        return histogramEqualization;
+    }
+
+    void cycle(int shift) {
+        cycleOffset += shift;
+    }
+
+    /**
+     * Compute the histogram of the escaped pixels of the buffer, so that each
+     * color of the palette covers about as many pixels as the others.
+     *
+     * @param buffer
+     */
+    void equalize(IterationBuffer buffer) {
+        Palette palette = scale.palette;
+        int maxSteps = palette.getMaxSteps();
+        long[] histogram = new long[maxSteps];
+        long total = 0;
+        for (int steps : buffer.steps) {
+            if (steps >= 0 && steps < maxSteps) {
+                histogram[steps]++;
+                total++;
+            }
+        }
+        double[] newEqualizedSteps = new double[maxSteps + 1];
+        long cumulated = 0;
+        for (int step = 0; step < maxSteps; step++) {
+            newEqualizedSteps[step] = total == 0 ? step : (double) maxSteps * cumulated / total;
+            cumulated += histogram[step];
+        }
+        newEqualizedSteps[maxSteps] = maxSteps;
+        scale = new Scale(palette, newEqualizedSteps);
+    }
+
+    /**
+     * @param steps the number of steps before the suite escaped.
+     * @param norm the squared modulus at escape time, or NaN.
+     * @return the color of the pixel as a packed RGB value.
+     */
+    int getRGB(int steps, float norm) {
+        Scale current = scale;
+        Palette palette = current.palette;
+        double[] equalizedSteps = current.equalizedSteps;
+        int maxSteps = palette.getMaxSteps();
+        if (steps < 0) {
+            return BLACK;
+        }
+        if (steps >= maxSteps) {
+            return palette.getRGB(maxSteps);
+        }
+
+        boolean smooth = smoothColoring && !Float.isNaN(norm);
+        if (!smooth && !histogramEqualization) {
+            // Most common case, no floating point math.
+            int index = (steps + cycleOffset) % maxSteps;
+            return palette.getRGB(index < 0 ? index + maxSteps : index);
+        }
+
+        double position = steps;
+        if (smooth) {
+            // Continuous iteration count, from the modulus at the time of escape.
+            position = steps + 1 - Math.log(0.5 * Math.log(norm)) / LOG_2;
+            position = Math.max(0, Math.min(position, maxSteps - 1));
+        }
+        if (histogramEqualization) {
+            int floor = (int) position;
+            double fraction = position - floor;
+            position = equalizedSteps[floor] + fraction * (equalizedSteps[floor + 1] - equalizedSteps[floor]);
+        }
+        position = (position + cycleOffset) % maxSteps;
+        if (position < 0) {
+            position += maxSteps;
+        }
+        if (smooth) {
+            return palette.getSmoothRGB(position);
+        } else {
+            return palette.getRGB((int) position);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package mandelbrot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * A kernel class generated at runtime for an iteration formula typed by the
+ * user. The statements given by FormulaParser are put in the same loop as the
+ * one of the Multibrot kernel, compiled in memory by the compiler of the JDK
+ * and defined as a hidden class of this package: the JIT compiles it as any
+ * other kernel, and the class is unloaded once its kernels are no longer
+ * used.
+ *
+ * @author arthu
+ */
+class CompiledFormula {
+
+    private static final String CLASS_NAME = "FormulaKernel";
+
+    private final String text;
+    // Calls the constructor (int maxSteps, double bailoutRadius) of the
+    // generated class.
+    private final MethodHandle constructor;
+
+    private CompiledFormula(String text, MethodHandle constructor) {
+        this.text = text;
+        this.constructor = constructor;
+    }
+
+    /**
+     * Parse and compile a formula, which takes about a second the first time
+     * the compiler is used.
+     *
+     * @param text the formula, as "z = z^2 + c".
+     * @return the compiled formula.
+     * @throws IllegalArgumentException if the formula is not valid.
+     * @throws IllegalStateException if the JVM has no compiler, as a JRE.
+     */
+    static CompiledFormula compile(String text) {
+        String source = createSource(text, FormulaParser.translate(text));
+        byte[] bytes = compileSource(source);
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, int.class, double.class));
+            return new CompiledFormula(text, constructor);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load the kernel of " + text, e);
+        }
+    }
+
+    /**
+     * @return the formula, as typed.
+     */
+    String getText() {
+        return text;
+    }
+
+    /**
+     * @param maxSteps
+     * @param bailoutRadius
+     * @return a kernel that iterates the formula from z = c, c being the
+     * point: z = 0 would stay in place with formulas such as z^3 + c*sin(z).
+     */
+    FractalKernel createKernel(int maxSteps, double bailoutRadius) {
+        try {
+            return (FractalKernel) constructor.invoke(maxSteps, bailoutRadius);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot create the kernel of " + text, e);
+        }
+    }
+
+    private static String createSource(String text, String step) {
+        return "package mandelbrot;\n"
+                + "\n"
+                + "// " + text.replaceAll("\\s+", " ") + "\n"
+                + "final class " + CLASS_NAME + " implements FractalKernel {\n"
+                + "\n"
+                + "    private final int maxSteps;\n"
+                + "    private final double bailoutRadius;\n"
+                + "\n"
+                + "    " + CLASS_NAME + "(int maxSteps, double bailoutRadius) {\n"
+                + "        this.maxSteps = maxSteps;\n"
+                + "        this.bailoutRadius = bailoutRadius;\n"
+                + "    }\n"
+                + "\n"
+                + "    @Override\n"
+                + "    public int getMaxSteps() {\n"
+                + "        return maxSteps;\n"
+                + "    }\n"
+                + "\n"
+                + "    @Override\n"
+                + "    public FractalKernel withMaxSteps(int newMaxSteps) {\n"
+                + "        return new " + CLASS_NAME + "(newMaxSteps, bailoutRadius);\n"
+                + "    }\n"
+                + "\n"
+                + "    @Override\n"
+                + "    public int iterate(double cr, double ci, float[] norms, int index) {\n"
+                + "        double bailoutSquared = bailoutRadius * bailoutRadius;\n"
+                + "        double zr = cr;\n"
+                + "        double zi = ci;\n"
+                + "        double norm = zr * zr + zi * zi;\n"
+                + "        int step = 0;\n"
+                + "        while (step < maxSteps && norm <= bailoutSquared) {\n"
+                + step.replaceAll("(?m)^", "            ")
+                + "            norm = zr * zr + zi * zi;\n"
+                + "            step++;\n"
+                + "        }\n"
+                + "        norms[index] = step < maxSteps ? (float) norm : Float.NaN;\n"
+                + "        return step;\n"
+                + "    }\n"
+                + "\n"
+                + "    @Override\n"
+                + "    public void iterateRow(double[] xs, int xsOffset, double y, int length, int[] steps, float[] norms, int offset) {\n"
+                + "        for (int i = 0; i < length; i++) {\n"
+                + "            steps[offset + i] = iterate(xs[xsOffset + i], y, norms, offset + i);\n"
+                + "        }\n"
+                + "    }\n"
+                + "}\n";
+    }
+
+    /**
+     * Compile the source of the kernel class against the classes of the
+     * application, without writing any file.
+     *
+     * @return the bytes of the class.
+     */
+    private static byte[] compileSource(String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("The formulas need a JDK, this JVM has no compiler.");
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///mandelbrot/" + CLASS_NAME + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        StandardJavaFileManager standardManager = compiler.getStandardFileManager(diagnostics, Locale.ROOT, null);
+        JavaFileManager manager = new ForwardingJavaFileManager<JavaFileManager>(standardManager) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                    FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("bytes:///" + className.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return bytes;
+                    }
+                };
+            }
+        };
+        List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-proc:none", "-g:none");
+        boolean compiled = compiler.getTask(null, manager, diagnostics, options, null,
+                Collections.singletonList(sourceFile)).call();
+        if (!compiled) {
+            StringBuilder message = new StringBuilder("Cannot compile the formula:");
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                message.append('\n').append(diagnostic.getMessage(Locale.ROOT));
+            }
+            throw new IllegalStateException(message.toString());
+        }
+        return bytes.toByteArray();
+    }
+}
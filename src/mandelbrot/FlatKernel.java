@@ -0,0 +1,36 @@
+package mandelbrot;
+
+/**
+ * A checkerboard of unit squares. The steps it gives are indexes of colors
+ * of World, not numbers of steps.
+ *
+ * @author arthu
+ */
+class FlatKernel implements FractalKernel {
+
+    @Override
+    public int getMaxSteps() {
+        // The highest index of color.
+        return World.GRAY;
+    }
+
+    @Override
+    public int iterate(double x, double y, float[] norms, int index) {
+        norms[index] = Float.NaN;
+        int xConv = (int) Math.floor(x);
+        int yConv = (int) Math.floor(y);
+
+        if (xConv % 2 == 0 ^ yConv % 2 == 0) {
+            return World.RED;
+        } else {
+            return World.BLUE;
+        }
+    }
+
+    @Override
+    public void iterateRow(double[] xs, int xsOffset, double y, int length, int[] steps, float[] norms, int offset) {
+        for (int i = 0; i < length; i++) {
+            steps[offset + i] = iterate(xs[xsOffset + i], y, norms, offset + i);
+        }
+    }
+}
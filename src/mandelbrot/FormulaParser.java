@@ -0,0 +1,520 @@
+package mandelbrot;
+
+/**
+ * Translate an iteration formula on complex numbers, such as
+ * "z = z^3 + c*sin(z)", into the Java statements that compute it on doubles.
+ * The formula may use z, c, i, pi, numbers, + - * / ^, parentheses and the
+ * functions sin, cos, tan, sinh, cosh, tanh, exp, log, sqrt, abs, conj, re and
+ * im; "z =" may be left out.
+ * Each operation is expanded into its real and imaginary parts, stored in
+ * local variables, so that the generated loop only handles doubles, as a
+ * hand-written kernel does. The constants are folded, the parts known to be
+ * zero are left out, and the integer powers are computed by multiplications.
+ *
+ * @author arthu
+ */
+class FormulaParser {
+
+    // Integer exponents up to this one are computed by multiplications.
+    private static final int MAX_MULTIPLIED_EXPONENT = 1024;
+
+    private final String text;
+    private int position;
+    private final StringBuilder code;
+    private int nbVariables;
+
+    /**
+     * A complex value of the formula: the Java expressions of its parts,
+     * which are variables or literals, and the values of the parts that are
+     * known before the iteration.
+     */
+    private static class Value {
+
+        final String re;
+        final String im;
+        // Null when the part is only known at each step.
+        final Double reValue;
+        final Double imValue;
+
+        Value(String re, Double reValue, String im, Double imValue) {
+            this.re = re;
+            this.reValue = reValue;
+            this.im = im;
+            this.imValue = imValue;
+        }
+
+        Value(String re, String im) {
+            this(re, null, im, null);
+        }
+
+        Value(double reValue, double imValue) {
+            this(literal(reValue), reValue, literal(imValue), imValue);
+        }
+
+        boolean isReal() {
+            return imValue != null && imValue == 0;
+        }
+
+        boolean isConstant() {
+            return reValue != null && imValue != null;
+        }
+    }
+
+    private FormulaParser(String text) {
+        this.text = text;
+        code = new StringBuilder();
+    }
+
+    /**
+     * @param text the formula.
+     * @return the statements that compute one step of the formula from zr, zi,
+     * cr and ci, and store the new value of z in zr and zi.
+     * @throws IllegalArgumentException if the formula is not valid.
+     */
+    static String translate(String text) {
+        FormulaParser parser = new FormulaParser(text);
+        Value z = parser.parseFormula();
+        parser.code.append("zr = ").append(z.re).append(";\n");
+        parser.code.append("zi = ").append(z.im).append(";\n");
+        return parser.code.toString();
+    }
+
+    private Value parseFormula() {
+        int start = position;
+        if (readName().equals("z") && accept('=')) {
+            // The assignment is optional.
+        } else {
+            position = start;
+        }
+        Value result = parseSum();
+        skipSpaces();
+        if (position < text.length()) {
+            throw error("Unexpected '" + text.charAt(position) + "'");
+        }
+        return result;
+    }
+
+    private Value parseSum() {
+        Value result = parseProduct();
+        while (true) {
+            if (accept('+')) {
+                result = add(result, parseProduct());
+            } else if (accept('-')) {
+                result = add(result, negate(parseProduct()));
+            } else {
+                return result;
+            }
+        }
+    }
+
+    private Value parseProduct() {
+        Value result = parseUnary();
+        while (true) {
+            if (accept('*')) {
+                result = multiply(result, parseUnary());
+            } else if (accept('/')) {
+                result = divide(result, parseUnary());
+            } else {
+                return result;
+            }
+        }
+    }
+
+    private Value parseUnary() {
+        if (accept('-')) {
+            return negate(parseUnary());
+        }
+        if (accept('+')) {
+            return parseUnary();
+        }
+        return parsePower();
+    }
+
+    private Value parsePower() {
+        Value base = parsePrimary();
+        if (accept('^')) {
+            // Right associative: z^2^3 is z^(2^3).
+            return power(base, parseUnary());
+        }
+        return base;
+    }
+
+    private Value parsePrimary() {
+        skipSpaces();
+        if (position >= text.length()) {
+            throw error("Unexpected end of the formula");
+        }
+        char first = text.charAt(position);
+        if (accept('(')) {
+            Value result = parseSum();
+            expect(')');
+            return result;
+        }
+        if (Character.isDigit(first) || first == '.') {
+            double number = readNumber();
+            int start = position;
+            if (readName().equals("i")) {
+                return new Value(0, number);
+            }
+            position = start;
+            return new Value(number, 0);
+        }
+        if (!Character.isLetter(first)) {
+            throw error("Unexpected '" + first + "'");
+        }
+        int start = position;
+        String name = readName();
+        switch (name) {
+        case "z":
+            return new Value("zr", "zi");
+        case "c":
+            return new Value("cr", "ci");
+        case "i":
+            return new Value(0, 1);
+        case "pi":
+            return new Value(Math.PI, 0);
+        default:
+            break;
+        }
+        if (!accept('(')) {
+            position = start;
+            throw error("Unknown variable '" + name + "'");
+        }
+        Value argument = parseSum();
+        expect(')');
+        return apply(name, argument, start);
+    }
+
+    private Value apply(String function, Value a, int start) {
+        if (!a.isReal() && !function.equals("abs") && !function.equals("conj") && !function.equals("re")
+                && !function.equals("im")) {
+            return applyComplex(function, a, start);
+        }
+        switch (function) {
+        case "sin":
+            return real("Math.sin(" + a.re + ")");
+        case "cos":
+            return real("Math.cos(" + a.re + ")");
+        case "tan":
+            return real("Math.tan(" + a.re + ")");
+        case "sinh":
+            return real(hyperbolic(a.re)[0]);
+        case "cosh":
+            return real(hyperbolic(a.re)[1]);
+        case "tanh":
+            return real("Math.tanh(" + a.re + ")");
+        case "exp":
+            return real("Math.exp(" + a.re + ")");
+        case "log":
+            // The logarithm of a negative number is not real.
+            return complex("Math.log(Math.abs(" + a.re + "))", "Math.atan2(0.0, " + a.re + ")");
+        case "sqrt":
+            return complex("Math.sqrt(Math.max(0, " + a.re + "))", "Math.sqrt(Math.max(0, -" + a.re + "))");
+        case "abs":
+            if (a.isReal()) {
+                return real("Math.abs(" + a.re + ")");
+            }
+            return real("Math.sqrt(" + a.re + " * " + a.re + " + " + a.im + " * " + a.im + ")");
+        case "conj":
+            return negateIm(a);
+        case "re":
+            return new Value(a.re, a.reValue, "0.0", 0.0);
+        case "im":
+            return new Value(a.im, a.imValue, "0.0", 0.0);
+        default:
+            position = start;
+            throw error("Unknown function '" + function + "'");
+        }
+    }
+
+    private Value applyComplex(String function, Value a, int start) {
+        switch (function) {
+        case "sin": {
+            String[] h = hyperbolic(a.im);
+            return complex("Math.sin(" + a.re + ") * " + h[1], "Math.cos(" + a.re + ") * " + h[0]);
+        }
+        case "cos": {
+            String[] h = hyperbolic(a.im);
+            return complex("Math.cos(" + a.re + ") * " + h[1], "-Math.sin(" + a.re + ") * " + h[0]);
+        }
+        case "tan":
+            return divide(applyComplex("sin", a, start), applyComplex("cos", a, start));
+        case "sinh": {
+            String[] h = hyperbolic(a.re);
+            return complex(h[0] + " * Math.cos(" + a.im + ")", h[1] + " * Math.sin(" + a.im + ")");
+        }
+        case "cosh": {
+            String[] h = hyperbolic(a.re);
+            return complex(h[1] + " * Math.cos(" + a.im + ")", h[0] + " * Math.sin(" + a.im + ")");
+        }
+        case "tanh":
+            return divide(applyComplex("sinh", a, start), applyComplex("cosh", a, start));
+        case "exp": {
+            String modulus = variable("Math.exp(" + a.re + ")");
+            return complex(modulus + " * Math.cos(" + a.im + ")", modulus + " * Math.sin(" + a.im + ")");
+        }
+        case "log":
+            return complex("0.5 * Math.log(" + a.re + " * " + a.re + " + " + a.im + " * " + a.im + ")",
+                    "Math.atan2(" + a.im + ", " + a.re + ")");
+        case "sqrt": {
+            String norm = variable("Math.sqrt(" + a.re + " * " + a.re + " + " + a.im + " * " + a.im + ")");
+            return complex("Math.sqrt(0.5 * (" + norm + " + " + a.re + "))",
+                    "Math.copySign(Math.sqrt(0.5 * (" + norm + " - " + a.re + ")), " + a.im + ")");
+        }
+        default:
+            position = start;
+            throw error("Unknown function '" + function + "'");
+        }
+    }
+
+    /**
+     * Math.sinh and Math.cosh are slow native calls; both are computed from
+     * one exponential instead, which the JIT turns into an intrinsic.
+     *
+     * @return the variables that hold sinh(x) and cosh(x).
+     */
+    private String[] hyperbolic(String x) {
+        String exp = variable("Math.exp(" + x + ")");
+        String inverse = variable("1 / " + exp);
+        return new String[]{variable("0.5 * (" + exp + " - " + inverse + ")"), variable("0.5 * (" + exp + " + " + inverse + ")")};
+    }
+
+    private Value negate(Value a) {
+        if (a.isConstant()) {
+            return new Value(-a.reValue, -a.imValue);
+        }
+        return part(sum(null, nonZero(a.re, a.reValue), true), sum(null, nonZero(a.im, a.imValue), true));
+    }
+
+    private Value negateIm(Value a) {
+        if (a.isConstant()) {
+            return new Value(a.reValue, -a.imValue);
+        }
+        Value im = part(sum(null, nonZero(a.im, a.imValue), true), null);
+        return new Value(a.re, a.reValue, im.re, im.reValue);
+    }
+
+    private Value add(Value a, Value b) {
+        if (a.isConstant() && b.isConstant()) {
+            return new Value(a.reValue + b.reValue, a.imValue + b.imValue);
+        }
+        return part(sum(nonZero(a.re, a.reValue), nonZero(b.re, b.reValue), false),
+                sum(nonZero(a.im, a.imValue), nonZero(b.im, b.imValue), false));
+    }
+
+    private Value multiply(Value a, Value b) {
+        if (a.isConstant() && b.isConstant()) {
+            return new Value(a.reValue * b.reValue - a.imValue * b.imValue, a.reValue * b.imValue + a.imValue * b.reValue);
+        }
+        return part(sum(product(a.re, a.reValue, b.re, b.reValue), product(a.im, a.imValue, b.im, b.imValue), true),
+                sum(product(a.re, a.reValue, b.im, b.imValue), product(a.im, a.imValue, b.re, b.reValue), false));
+    }
+
+    private Value square(Value a) {
+        if (a.isReal() || a.isConstant() || (a.reValue != null && a.reValue == 0)) {
+            return multiply(a, a);
+        }
+        return complex(a.re + " * " + a.re + " - " + a.im + " * " + a.im, "2 * " + a.re + " * " + a.im);
+    }
+
+    private Value divide(Value a, Value b) {
+        if (a.isConstant() && b.isConstant()) {
+            double inverse = 1 / (b.reValue * b.reValue + b.imValue * b.imValue);
+            return new Value((a.reValue * b.reValue + a.imValue * b.imValue) * inverse,
+                    (a.imValue * b.reValue - a.reValue * b.imValue) * inverse);
+        }
+        if (b.isReal()) {
+            if (b.reValue != null) {
+                return multiply(a, new Value(1 / b.reValue, 0));
+            }
+            String inverse = variable("1 / " + b.re);
+            return multiply(a, new Value(inverse, null, "0.0", 0.0));
+        }
+        String inverse = variable("1 / (" + b.re + " * " + b.re + " + " + b.im + " * " + b.im + ")");
+        String re = sum(product(a.re, a.reValue, b.re, b.reValue), product(a.im, a.imValue, b.im, b.imValue), false);
+        String im = sum(product(a.im, a.imValue, b.re, b.reValue), product(a.re, a.reValue, b.im, b.imValue), true);
+        return part(re == null ? null : parenthesize(re) + " * " + inverse, im == null ? null : parenthesize(im) + " * " + inverse);
+    }
+
+    private Value power(Value base, Value exponent) {
+        if (base.isReal() && base.isConstant() && exponent.isReal() && exponent.isConstant() && base.reValue >= 0) {
+            return new Value(Math.pow(base.reValue, exponent.reValue), 0);
+        }
+        if (exponent.isReal() && exponent.isConstant() && exponent.reValue == Math.rint(exponent.reValue)
+                && Math.abs(exponent.reValue) <= MAX_MULTIPLIED_EXPONENT) {
+            int n = (int) Math.abs(exponent.reValue);
+            Value result = n == 0 ? new Value(1, 0) : integerPower(base, n);
+            return exponent.reValue < 0 ? divide(new Value(1, 0), result) : result;
+        }
+        if (base.isReal() && base.isConstant() && base.reValue > 0) {
+            // b^w = exp(w log b), with a constant logarithm.
+            return apply("exp", multiply(exponent, new Value(Math.log(base.reValue), 0)), position);
+        }
+        // z^w = exp(w log z), with the principal logarithm.
+        return apply("exp", multiply(exponent, applyComplex("log", base, position)), position);
+    }
+
+    /**
+     * Compute base^n by squaring, with the intermediate powers in variables.
+     */
+    private Value integerPower(Value base, int n) {
+        Value result = null;
+        Value power = base;
+        while (true) {
+            if ((n & 1) != 0) {
+                result = result == null ? power : multiply(result, power);
+            }
+            n >>= 1;
+            if (n == 0) {
+                return result;
+            }
+            power = square(power);
+        }
+    }
+
+    /**
+     * @return null when the part is known to be zero, the part otherwise.
+     */
+    private static String nonZero(String part, Double value) {
+        return value != null && value == 0 ? null : part;
+    }
+
+    /**
+     * @return the expression of x * y, null when it is known to be zero.
+     */
+    private static String product(String x, Double xValue, String y, Double yValue) {
+        if ((xValue != null && xValue == 0) || (yValue != null && yValue == 0)) {
+            return null;
+        }
+        if (xValue != null && xValue == 1) {
+            return y;
+        }
+        if (yValue != null && yValue == 1) {
+            return x;
+        }
+        return x + " * " + y;
+    }
+
+    /**
+     * @return the expression of x + y or x - y, where null stands for zero.
+     */
+    private static String sum(String x, String y, boolean subtract) {
+        if (y == null) {
+            return x;
+        }
+        if (subtract) {
+            y = parenthesize(y);
+        }
+        if (x == null) {
+            return subtract ? "-" + y : y;
+        }
+        return x + (subtract ? " - " : " + ") + y;
+    }
+
+    private static String parenthesize(String expression) {
+        return expression.contains(" ") ? "(" + expression + ")" : expression;
+    }
+
+    /**
+     * Store the parts of a complex value in new variables, unless they are
+     * zero or already a variable.
+     *
+     * @param re the real part, null for zero.
+     * @param im the imaginary part, null for zero.
+     */
+    private Value part(String re, String im) {
+        String reVariable = re == null ? "0.0" : re.matches("\\w+") ? re : variable(re);
+        String imVariable = im == null ? "0.0" : im.matches("\\w+") ? im : variable(im);
+        return new Value(reVariable, re == null ? 0.0 : null, imVariable, im == null ? 0.0 : null);
+    }
+
+    private Value complex(String re, String im) {
+        return new Value(variable(re), variable(im));
+    }
+
+    private Value real(String re) {
+        return new Value(variable(re), null, "0.0", 0.0);
+    }
+
+    /**
+     * @return the name of a new variable that holds the value of the
+     * expression.
+     */
+    private String variable(String expression) {
+        String name = "v" + nbVariables++;
+        code.append("double ").append(name).append(" = ").append(expression).append(";\n");
+        return name;
+    }
+
+    private static String literal(double value) {
+        if (Double.isNaN(value)) {
+            return "Double.NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        }
+        return "(" + value + ")";
+    }
+
+    private double readNumber() {
+        int start = position;
+        while (position < text.length() && (Character.isDigit(text.charAt(position)) || text.charAt(position) == '.')) {
+            position++;
+        }
+        if (position < text.length() && (text.charAt(position) == 'e' || text.charAt(position) == 'E')) {
+            int exponentStart = position;
+            position++;
+            if (position < text.length() && (text.charAt(position) == '+' || text.charAt(position) == '-')) {
+                position++;
+            }
+            if (position < text.length() && Character.isDigit(text.charAt(position))) {
+                while (position < text.length() && Character.isDigit(text.charAt(position))) {
+                    position++;
+                }
+            } else {
+                // Not an exponent, as in "2exp(z)".
+                position = exponentStart;
+            }
+        }
+        try {
+            return Double.parseDouble(text.substring(start, position));
+        } catch (NumberFormatException e) {
+            position = start;
+            throw error("Invalid number");
+        }
+    }
+
+    private String readName() {
+        skipSpaces();
+        int start = position;
+        while (position < text.length() && Character.isLetter(text.charAt(position))) {
+            position++;
+        }
+        return text.substring(start, position);
+    }
+
+    private boolean accept(char expected) {
+        skipSpaces();
+        if (position < text.length() && text.charAt(position) == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char expected) {
+        if (!accept(expected)) {
+            throw error("Missing '" + expected + "'");
+        }
+    }
+
+    private void skipSpaces() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + (position + 1) + " of the formula: " + text);
+    }
+}
@@ -0,0 +1,62 @@
+package mandelbrot;
+
+/**
+ * The escape-time computation of a fractal.
+ * Implementations write the number of steps and the squared modulus at escape
+ * time of each point, the same data as the one kept in an IterationBuffer.
+ *
+ * @author arthu
+ */
+interface FractalKernel {
+
+    /**
+     * Compute the escape data of one point.
+     *
+     * @param x
+     * @param y
+     * @param norms receives the squared modulus at escape time, or NaN when
+     * the point reaches the maximum number of steps.
+     * @param index where the modulus is stored in norms.
+     * @return the number of steps before the suite escaped.
+     */
+    int iterate(double x, double y, float[] norms, int index);
+
+    /**
+     * Compute the escape data of consecutive points of one line.
+     *
+     * @param xs the real parts of the points.
+     * @param xsOffset index of the first real part in xs.
+     * @param y the imaginary part, shared by all the points.
+     * @param length the number of points.
+     * @param steps receives the number of steps of each point.
+     * @param norms receives the squared modulus of each point, or NaN.
+     * @param offset index of the first point in steps and norms.
+     */
+    void iterateRow(double[] xs, int xsOffset, double y, int length, int[] steps, float[] norms, int offset);
+
+    /**
+     * @return the number of steps after which a point is considered as never
+     * escaping; such points get this number of steps.
+     */
+    int getMaxSteps();
+
+    /**
+     * A kernel that computes the same suite with another number of steps, for
+     * the tiles that need fewer of them.
+     *
+     * @param newMaxSteps not more than the number of steps of this kernel.
+     * @return the kernel, or this one when it cannot change its number of
+     * steps.
+     */
+    default FractalKernel withMaxSteps(int newMaxSteps) {
+        return this;
+    }
+
+    /**
+     * @return true if the kernel takes the offsets of the points from the
+     * center of the viewport instead of their coordinates.
+     */
+    default boolean isRelative() {
+        return false;
+    }
+}
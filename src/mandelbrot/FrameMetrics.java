@@ -0,0 +1,129 @@
+package mandelbrot;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters of one render job. The tiles count in their own fields and
+ * add them here once they are finished, so the hot loops only touch local
+ * data.
+ *
+ * @author arthu
+ */
+class FrameMetrics {
+
+    private final int nbPixels;
+    private final int nbThreads;
+
+    private final LongAdder nbSteps = new LongAdder();
+    private final LongAdder nbPixelsComputed = new LongAdder();
+    private final LongAdder nbPixelsFilled = new LongAdder();
+    private final LongAdder kernelNanos = new LongAdder();
+    private final LongAdder coloringNanos = new LongAdder();
+    // Time spent by the threads in the tiles.
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder nbTiles = new LongAdder();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    /**
+     * @param nbPixels the number of pixels of the frame.
+     * @param nbThreads the number of threads that compute it.
+     */
+    FrameMetrics(int nbPixels, int nbThreads) {
+        this.nbPixels = nbPixels;
+        this.nbThreads = nbThreads;
+    }
+
+    int getNbThreads() {
+        return nbThreads;
+    }
+
+    void start() {
+        startNanos = System.nanoTime();
+    }
+
+    void end() {
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * Add the counters of a finished tile.
+     *
+     * @param steps the sum of the steps of the pixels it iterated.
+     * @param computed the number of pixels it iterated.
+     * @param filled the number of pixels it filled without iterating.
+     * @param kernel time spent in the kernel.
+     * @param coloring time spent coloring.
+     * @param busy time spent in the tile.
+     * @param queueDepth the number of tasks waiting in the pool.
+     */
+    void tileDone(long steps, long computed, long filled, long kernel, long coloring, long busy, int queueDepth) {
+        nbSteps.add(steps);
+        nbPixelsComputed.add(computed);
+        nbPixelsFilled.add(filled);
+        kernelNanos.add(kernel);
+        coloringNanos.add(coloring);
+        busyNanos.add(busy);
+        nbTiles.increment();
+        maxQueueDepth.accumulateAndGet(queueDepth, Math::max);
+    }
+
+    long getNbSteps() {
+        return nbSteps.sum();
+    }
+
+    long getNbPixelsComputed() {
+        return nbPixelsComputed.sum();
+    }
+
+    long getNbPixelsFilled() {
+        return nbPixelsFilled.sum();
+    }
+
+    /**
+     * @return the pixels that were known before the job, kept from the
+     * previous frame or loaded from the cache; only final once the job is
+     * done.
+     */
+    long getNbPixelsReused() {
+        return Math.max(0, nbPixels - getNbPixelsComputed() - getNbPixelsFilled());
+    }
+
+    long getKernelNanos() {
+        return kernelNanos.sum();
+    }
+
+    long getColoringNanos() {
+        return coloringNanos.sum();
+    }
+
+    long getNbTiles() {
+        return nbTiles.sum();
+    }
+
+    int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return the time since the job started, until it ended if it did.
+     */
+    long getElapsedNanos() {
+        if (startNanos == 0) {
+            return 0;
+        }
+        return (endNanos == 0 ? System.nanoTime() : endNanos) - startNanos;
+    }
+
+    /**
+     * @return the share of the time of the threads spent in the tiles, between
+     * 0 and 1.
+     */
+    double getThreadUtilization() {
+        long elapsed = getElapsedNanos();
+        return elapsed == 0 ? 0 : Math.min(1, (double) busyNanos.sum() / elapsed / nbThreads);
+    }
+}
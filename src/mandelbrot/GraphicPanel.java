@@ -9,10 +9,16 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import javax.swing.JFrame;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 /**
  *
@@ -20,35 +26,37 @@ import javax.swing.JPanel;
  */
 public class GraphicPanel extends JPanel implements MouseListener, MouseMotionListener, MouseWheelListener, ComponentListener {
 
+    private static final long serialVersionUID = 1L;
+
     private World world;
 
-    private double x0, y0, zoom;
+    // The origin is kept with arbitrary precision, for deep zooms.
+    private BigDecimal x0, y0;
+    private double zoom;
     private int xMouse, yMouse;
     private double xWorld, yWorld;
 
     private boolean isPanning;
 
-    private int delay, paintingPeriod; // milliseconds
-
     private boolean paintFromBeginning;
-    private Timer paintingTimer;
 
-    // The list of regions must be kept sorted: list must start with regions with lowest LOD
-//    private ArrayList<PaintingRegion> regionList;
-    // When painting in square regions, this is how many layers deep we go.
-    private int nbLevels;
     private JFrame window;
 
+    // Computes the frames on the other cores; the panel only draws them.
+    private RenderScheduler scheduler;
+    // True to show the render metrics over the image.
+    private boolean showMetrics;
+
     public GraphicPanel(World newWorld) {
         super();
         world = newWorld;
         if (newWorld.getType() == World.DrawingType.MANDELBROT) {
-            x0 = 684;
-            y0 = 453;
+            x0 = BigDecimal.valueOf(684);
+            y0 = BigDecimal.valueOf(453);
             zoom = 304.48;
         } else {
-            x0 = 0.0;
-            y0 = 0.0;
+            x0 = BigDecimal.ZERO;
+            y0 = BigDecimal.ZERO;
             zoom = 1.0;
         }
         this.addMouseListener(this);
@@ -56,72 +64,33 @@ public class GraphicPanel extends JPanel implements MouseListener, MouseMotionLi
         this.addMouseWheelListener(this);
         this.addKeyListener(new MandelKeyListener(this));
         this.addComponentListener(this);
+        this.setFocusable(true);
 
         isPanning = false;
 
-        delay = 0;
-        paintingPeriod = 100;
-
-        nbLevels = 1;
-
-        paintingTimer = new Timer();
-        restartTimer();
-
-//        regionList = new ArrayList<>();
-//        regionList.add(new PaintingRegion(zoom));
+        scheduler = new RenderScheduler(world, this::repaint, TileCache.createForViewer());
         paintFromBeginning = true;
-        world.resetStep();
-    }
-
-    private void restartTimer() {
-        paintingTimer.cancel();
-        paintingTimer = new Timer();
-        paintingTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                repaint();
-            }
-        }, 0, paintingPeriod);
     }
 
     @Override
     public void paintComponent(Graphics g) {
-        System.out.println("paint x0: " + x0 + ", y0: " + y0 + ", zoom: " + zoom);
-
-        boolean keepOldMethod = true;
-        if (keepOldMethod) {
-            if (paintFromBeginning) {
-                paintFromBeginning = false;
-                g.setColor(Color.black);
-                g.fillRect(0, 0, g.getClipBounds().width, g.getClipBounds().height);
-                world.resetStep();
-            }
-            world.paintWithTimeLimit(g, x0, y0, zoom);
-            setWindowTitle(g.getClipBounds().width, g.getClipBounds().height);
-//            world.paintRecursionPath(xWorld, yWorld, g, x0, y0, zoom);
-        } else {
-//            if (regionList.isEmpty()) {
-//                // Create first region
-//                regionList.add(new PaintingRegion(0, 0, g.getClipBounds().width, g.getClipBounds().height));
-//            }
-//
-//            boolean keepPainting = true;
-//            long startDate = System.currentTimeMillis();
-//            long maxDrawingDuration = 300;
-//
-//            while (keepPainting) {
-//
-//                // Select region with the current lowest LOD
-//                PaintingRegion lowestLODRegion = regionList.get(0);
-//                // Paint a chunk of it
-////                if (!lowestLODRegion.isDone()) {
-//                lowestLODRegion.paint(g, world, x0, y0, zoom);
-////                }
-//                if (System.currentTimeMillis() > startDate + maxDrawingDuration) {
-//                    keepPainting = false;
-//                }
-//            }
+        // The size of the panel is only known once it is painted.
+        if (paintFromBeginning) {
+            paintFromBeginning = false;
+            scheduler.render(getViewport());
+        }
+        RenderTarget target = scheduler.getTarget();
+        if (target != null) {
+            long blitStart = System.nanoTime();
+            g.drawImage(target.getImage(), 0, 0, null);
+            scheduler.getMetrics().blitDone(System.nanoTime() - blitStart);
+        }
+        world.paintCenter(g, x0.doubleValue(), y0.doubleValue(), zoom);
+        if (showMetrics) {
+            paintMetrics(g);
         }
+        setWindowTitle(getWidth(), getHeight());
+//        world.paintRecursionPath(xWorld, yWorld, g, x0, y0, zoom);
     }
 
     @Override
@@ -132,8 +101,8 @@ public class GraphicPanel extends JPanel implements MouseListener, MouseMotionLi
     public void mousePressed(MouseEvent e) {
         if (e.getButton() == 1) {
             isPanning = false;
-            xWorld = (e.getX() - x0) / zoom;
-            yWorld = (this.getHeight() - e.getY() - y0) / zoom;
+            xWorld = (e.getX() - x0.doubleValue()) / zoom;
+            yWorld = (this.getHeight() - e.getY() - y0.doubleValue()) / zoom;
             world.mousePressed(xWorld, yWorld);
         } else if (e.getButton() == 2) {
             isPanning = true;
@@ -170,14 +139,12 @@ public class GraphicPanel extends JPanel implements MouseListener, MouseMotionLi
         yMouse = e.getY();
 
         if (isPanning) {
-            x0 += dx;
-            y0 -= dy;
-            paintFromBeginning = true;
+            x0 = x0.add(BigDecimal.valueOf(dx));
+            y0 = y0.subtract(BigDecimal.valueOf(dy));
             recomputeRegions(dx, dy);
-            restartTimer();
         } else {
-            xWorld = (e.getX() - x0) / zoom;
-            yWorld = (this.getHeight() - e.getY() - y0) / zoom;
+            xWorld = (e.getX() - x0.doubleValue()) / zoom;
+            yWorld = (this.getHeight() - e.getY() - y0.doubleValue()) / zoom;
             world.mouseDragged(xWorld, yWorld);
         }
     }
@@ -186,8 +153,8 @@ public class GraphicPanel extends JPanel implements MouseListener, MouseMotionLi
     public void mouseMoved(MouseEvent e) {
         xMouse = e.getX();
         yMouse = e.getY();
-        xWorld = (e.getX() - x0) / zoom;
-        yWorld = (this.getHeight() - e.getY() - y0) / zoom;
+        xWorld = (e.getX() - x0.doubleValue()) / zoom;
+        yWorld = (this.getHeight() - e.getY() - y0.doubleValue()) / zoom;
     }
 
     @Override
@@ -208,21 +175,56 @@ public class GraphicPanel extends JPanel implements MouseListener, MouseMotionLi
             break;
         }
 
+        zoomAround(e.getX(), e.getY(), zoomFact);
+    }
+
+    void zoomOnMouse(double zoomFact) {
+        zoomAround(xMouse, yMouse, zoomFact);
+    }
+
+    /**
+     * Zoom so that the point under the given pixel stays in place. The current
+     * frame is rescaled at once as a preview of the new one; the pixels that
+     * fall exactly on a pixel that is already known are kept.
+     *
+     * @param x
+     * @param y
+     * @param zoomFact greater than 1 to zoom in.
+     */
+    private void zoomAround(int x, int y, double zoomFact) {
         int h = this.getHeight();
 
-        x0 = zoomFact * (x0 - e.getX()) + e.getX();
-        y0 = h - e.getY() - zoomFact * (h - y0 - e.getY());
+        // The point under the mouse stays in place.
         zoom = zoom * zoomFact;
-        resetRegions();
-        paintFromBeginning = true;
-        restartTimer();
-//        System.out.println("x0 = " + x0 + ", y0 = " + y0 + ", zoom = " + zoom);
+        MathContext mc = Viewport.getMathContext(zoom);
+        BigDecimal factor = new BigDecimal(zoomFact);
+        BigDecimal xMouseExact = BigDecimal.valueOf(x);
+        BigDecimal yMouseExact = BigDecimal.valueOf(h - y);
+        x0 = x0.subtract(xMouseExact).multiply(factor, mc).add(xMouseExact, mc);
+        y0 = y0.subtract(yMouseExact).multiply(factor, mc).add(yMouseExact, mc);
+        scheduler.zoom(getViewport(), x, y, zoomFact);
+    }
+
+    /**
+     * Round the zoom to the zoom of the nearest level of the tile cache, and
+     * the origin to a whole pixel, so that the frame falls on cached tiles.
+     * Panning and zooming in twice keep the view on the tiles.
+     */
+    void snapToTiles() {
+        int level = (int) Math.max(0, Math.min(TileKey.MAX_LEVEL,
+                Math.round(Math.log(zoom / TileKey.LEVEL_0_ZOOM) / Math.log(2))));
+        Viewport viewport = getViewport();
+        Viewport snapped = Viewport.centeredOn(viewport.width, viewport.height,
+                viewport.getCenterX(), viewport.getCenterY(), TileKey.getZoom(level));
+        x0 = snapped.getExactX0().setScale(0, RoundingMode.HALF_EVEN);
+        y0 = snapped.getExactY0().setScale(0, RoundingMode.HALF_EVEN);
+        zoom = snapped.zoom;
+        scheduler.render(getViewport());
     }
 
     @Override
     public void componentResized(ComponentEvent e) {
-        paintFromBeginning = true;
-        restartTimer();
+        scheduler.render(getViewport());
     }
 
     @Override
@@ -231,40 +233,167 @@ public class GraphicPanel extends JPanel implements MouseListener, MouseMotionLi
 
     @Override
     public void componentShown(ComponentEvent e) {
-        paintFromBeginning = true;
-        restartTimer();
+        scheduler.render(getViewport());
     }
 
     @Override
     public void componentHidden(ComponentEvent e) {
     }
 
-    void increaseNbLevels(int increase) {
-        if (nbLevels + increase >= 0) {
-            nbLevels += increase;
-            repaint();
+    private Viewport getViewport() {
+        return new Viewport(Math.max(getWidth(), 1), Math.max(getHeight(), 1), x0, y0, zoom);
+    }
+
+    // The world is only changed on the scheduler thread: the tiles of the
+    // current job read it until they are stopped.
+    void toggleSmoothColoring() {
+        scheduler.recolor(() -> world.getColorizer().toggleSmoothColoring());
+    }
+
+    void toggleAutoMaxSteps() {
+        scheduler.render(getViewport(), () -> world.setAutoMaxSteps(!world.usesAutoMaxSteps()));
+    }
+
+    void toggleHistogramEqualization() {
+        scheduler.recolor(() -> world.getColorizer().toggleHistogramEqualization());
+    }
+
+    void cycleColors(int shift) {
+        scheduler.recolor(() -> world.getColorizer().cycle(shift));
+    }
+
+    /**
+     * Switch between the smallest bailout radius and a large one, that gives
+     * a better smooth coloring; the frame must be computed again.
+     */
+    void toggleBailoutRadius() {
+        scheduler.render(getViewport(), () -> {
+            if (world.getBailoutRadius() == World.DEFAULT_BAILOUT_RADIUS) {
+                world.setBailoutRadius(World.SMOOTH_BAILOUT_RADIUS);
+            } else {
+                world.setBailoutRadius(World.DEFAULT_BAILOUT_RADIUS);
+            }
+        });
+    }
+
+    void nextRamp() {
+        scheduler.recolor(world::nextRamp);
+    }
+
+    /**
+     * Switch to the next strategy of the tile renderer.
+     */
+    void nextStrategy() {
+        TileRenderer renderer = scheduler.getRenderer();
+        scheduler.render(getViewport(), () -> {
+            TileRenderer.Strategy[] strategies = TileRenderer.Strategy.values();
+            renderer.setStrategy(strategies[(renderer.getStrategy().ordinal() + 1) % strategies.length]);
+        });
+    }
+
+    /**
+     * Switch to the next drawing type, with the same view. The formulas are
+     * compiled on the scheduler thread, which takes a while the first time.
+     */
+    void nextType() {
+        scheduler.render(getViewport(), () -> {
+            World.DrawingType[] types = World.DrawingType.values();
+            World.DrawingType type = types[(world.getType().ordinal() + 1) % types.length];
+            try {
+                world.setType(type);
+            } catch (IllegalStateException e) {
+                // No compiler for the formulas on this JVM.
+                world.setType(types[(type.ordinal() + 1) % types.length]);
+            }
+        });
+    }
+
+    /**
+     * Ask for an iteration formula and draw it; it is compiled on the
+     * scheduler thread.
+     */
+    void askFormula() {
+        String text = JOptionPane.showInputDialog(window, "Iteration formula, with z and c:", world.getFormula());
+        if (text == null) {
+            return;
         }
+        scheduler.render(getViewport(), () -> {
+            try {
+                world.setFormula(text);
+                world.setType(World.DrawingType.FORMULA);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(window, e.getMessage(), "Formula",
+                        JOptionPane.ERROR_MESSAGE));
+            }
+        });
+    }
+
+    /**
+     * Change the number of threads of the renderer, on the scheduler thread
+     * that submits its jobs.
+     *
+     * @param increase
+     */
+    void changeNbThreads(int increase) {
+        TileRenderer renderer = scheduler.getRenderer();
+        scheduler.render(getViewport(), () -> renderer.setNbThreads(renderer.getNbThreads() + increase));
     }
 
     void setWindow(JFrame w) {
         this.window = w;
     }
 
+    void toggleMetricsOverlay() {
+        showMetrics = !showMetrics;
+        repaint();
+    }
+
+    /**
+     * Write the settings of the view and the metrics of the frame being
+     * computed over the image.
+     */
+    private void paintMetrics(Graphics g) {
+        List<String> lines = new ArrayList<>();
+        TileRenderer renderer = scheduler.getRenderer();
+        lines.add(world.getType() + (world.getType() == World.DrawingType.FORMULA ? " z = " + world.getFormula() : "")
+                + ", " + world.getKernelMaxSteps() + (world.usesAutoMaxSteps() ? " automatic" : "") + " steps, "
+                + renderer.getStrategy() + " on " + renderer.getNbThreads() + " threads");
+        lines.addAll(Arrays.asList(scheduler.getMetrics().getOverlayLines()));
+        if (scheduler.getTileCache() != null) {
+            lines.add(scheduler.getTileCache().toString());
+        }
+        int lineHeight = g.getFontMetrics().getHeight();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, g.getFontMetrics().stringWidth(line));
+        }
+        g.setColor(new Color(0, 0, 0, 160));
+        g.fillRect(5, 5, width + 10, lineHeight * lines.size() + 10);
+        g.setColor(Color.white);
+        for (int i = 0; i < lines.size(); i++) {
+            g.drawString(lines.get(i), 10, 10 + lineHeight * (i + 1) - g.getFontMetrics().getDescent());
+        }
+    }
+
     private void setWindowTitle(int currentWidth, int currentHeight) {
 
-        double xCenter = (currentWidth / 2 - x0) / this.zoom;
-        double yCenter = (currentHeight / 2 - y0) / zoom;
+        Viewport viewport = new Viewport(currentWidth, currentHeight, x0, y0, zoom);
+        BigDecimal xCenter = viewport.getCenterX();
+        BigDecimal yCenter = viewport.getCenterY();
 
         String newTitle = "x: " + xCenter + ", y: " + yCenter + ", zoom: " + zoom;
         window.setTitle(newTitle);
     }
 
+    /**
+     * Move the pixels that are already computed along with the view, and only
+     * compute the strips that the move uncovered.
+     *
+     * @param dx
+     * @param dy
+     */
     private void recomputeRegions(int dx, int dy) {
-        // TODO
-    }
-
-    private void resetRegions() {
-//        regionList.clear();
+        scheduler.pan(getViewport(), dx, dy);
     }
 
 }
@@ -0,0 +1,56 @@
+package mandelbrot;
+
+/**
+ * The suite z(n+1) = (Re(z(n)^2 + c))^2 + i Im(z(n)^2 + c), whose set of
+ * bounded points looks like a heart.
+ *
+ * @author arthu
+ */
+class HeartKernel implements FractalKernel {
+
+    // Limit of convergence of the squared modulus; if it goes higher, the
+    // suite diverges. This is the value that 10000000 * 10000000 used to
+    // overflow to as an int, kept so that the drawing does not change.
+    private static final double MAX_NORM = 276447232;
+
+    private final int maxSteps;
+
+    public HeartKernel(int maxSteps) {
+        this.maxSteps = maxSteps;
+    }
+
+    @Override
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    @Override
+    public FractalKernel withMaxSteps(int newMaxSteps) {
+        return new HeartKernel(newMaxSteps);
+    }
+
+    @Override
+    public int iterate(double x, double y, float[] norms, int index) {
+        double xCurrent = 0;
+        double yCurrent = 0;
+        int step = 0;
+        while (step < maxSteps && xCurrent * xCurrent + yCurrent * yCurrent < MAX_NORM) {
+            double xNext = xCurrent * xCurrent - yCurrent * yCurrent + x;
+            xNext = xNext * xNext;
+            double yNext = 2 * xCurrent * yCurrent + y;
+
+            xCurrent = xNext;
+            yCurrent = yNext;
+            step++;
+        }
+        norms[index] = Float.NaN;
+        return step;
+    }
+
+    @Override
+    public void iterateRow(double[] xs, int xsOffset, double y, int length, int[] steps, float[] norms, int offset) {
+        for (int i = 0; i < length; i++) {
+            steps[offset + i] = iterate(xs[xsOffset + i], y, norms, offset + i);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package mandelbrot;
+
+/**
+ * A checkerboard seen through the unit disk, which is stretched to the
+ * whole plane, so the squares get smaller near its border. The steps it gives
+ * are indexes of colors of World.
+ *
+ * @author arthu
+ */
+class HyperbolicKernel implements FractalKernel {
+
+    @Override
+    public int getMaxSteps() {
+        // The highest index of color.
+        return World.GRAY;
+    }
+
+    @Override
+    public int iterate(double x, double y, float[] norms, int index) {
+        norms[index] = Float.NaN;
+
+        // Map the norm of points from [0, 1[ to [0, infinity[
+        double norm = Math.sqrt(x * x + y * y);
+        if (norm > 1) {
+            return World.GRAY;
+        }
+        double proportionFactor = 5 / (norm - 1);
+        double xCurrent = x * proportionFactor;
+        double yCurrent = y * proportionFactor;
+
+        if (xCurrent < 0) {
+            xCurrent--;
+        }
+        if (yCurrent < 0) {
+            yCurrent--;
+        }
+        boolean xIsEven = ((((int) xCurrent) / 2) * 2 == (int) xCurrent);
+        boolean yIsEven = ((((int) yCurrent) / 2) * 2 == (int) yCurrent);
+
+        if (xIsEven && yIsEven || (!xIsEven) && (!yIsEven)) {
+            return World.RED;
+        } else {
+            return World.BLUE;
+        }
+    }
+
+    @Override
+    public void iterateRow(double[] xs, int xsOffset, double y, int length, int[] steps, float[] norms, int offset) {
+        for (int i = 0; i < length; i++) {
+            steps[offset + i] = iterate(xs[xsOffset + i], y, norms, offset + i);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package mandelbrot;
+
+import java.util.Arrays;
+
+/**
+ * The raw escape data of every pixel of a frame, stored line after line.
+ * For each pixel we keep the number of steps before the suite escaped and the
+ * squared modulus it had at that moment; the colors are computed from this
+ * data in a separate pass, so changing the palette never iterates again.
+ *
+ * @author arthu
+ */
+class IterationBuffer {
+
+    // Value of steps for a pixel that has not been computed yet.
+    static final int NOT_COMPUTED = -1;
+
+    final int width;
+    final int height;
+    final int[] steps;
+    // Squared modulus at escape time, or NaN when the kernel does not provide it.
+    final float[] norms;
+
+    public IterationBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        steps = new int[width * height];
+        norms = new float[width * height];
+        clear();
+    }
+
+    void clear() {
+        Arrays.fill(steps, NOT_COMPUTED);
+        Arrays.fill(norms, Float.NaN);
+    }
+
+    /**
+     * Move the escape data by (dx, dy) pixels, as when the view is panned; the
+     * pixels that are uncovered become not computed.
+     *
+     * @param dx positive when the data moves to the right.
+     * @param dy positive when the data moves down.
+     */
+    void shift(int dx, int dy) {
+        shift(steps, width, height, dx, dy);
+        shift(norms, width, height, dx, dy);
+        int stripX = dx > 0 ? 0 : width + dx;
+        int stripY = dy > 0 ? 0 : height + dy;
+        fillRect(stripX, 0, Math.abs(dx), height);
+        fillRect(0, stripY, width, Math.abs(dy));
+    }
+
+    private void fillRect(int x, int y, int w, int h) {
+        int colStart = Math.max(x, 0);
+        int colEnd = Math.min(x + w, width);
+        int lineEnd = Math.min(y + h, height);
+        for (int line = Math.max(y, 0); line < lineEnd && colStart < colEnd; line++) {
+            Arrays.fill(steps, line * width + colStart, line * width + colEnd, NOT_COMPUTED);
+            Arrays.fill(norms, line * width + colStart, line * width + colEnd, Float.NaN);
+        }
+    }
+
+    /**
+     * Fill this buffer with the data of another one seen through a zoom around
+     * the pixel (xCenter, yCenter). Only the pixels that fall exactly on a pixel
+     * of the source are known, for instance one pixel in four when zooming in
+     * twice; the others are not computed.
+     *
+     * @param source a buffer of the same size.
+     * @param xCenter
+     * @param yCenter
+     * @param factor greater than 1 to zoom in.
+     */
+    void zoomFrom(IterationBuffer source, int xCenter, int yCenter, double factor) {
+        int[] cols = getSourceIndexes(width, xCenter, factor, true);
+        int[] lines = getSourceIndexes(height, yCenter, factor, true);
+        for (int line = 0; line < height; line++) {
+            int lineStart = line * width;
+            if (lines[line] < 0) {
+                Arrays.fill(steps, lineStart, lineStart + width, NOT_COMPUTED);
+                Arrays.fill(norms, lineStart, lineStart + width, Float.NaN);
+                continue;
+            }
+            int sourceLineStart = lines[line] * width;
+            for (int col = 0; col < width; col++) {
+                if (cols[col] < 0) {
+                    steps[lineStart + col] = NOT_COMPUTED;
+                    norms[lineStart + col] = Float.NaN;
+                } else {
+                    steps[lineStart + col] = source.steps[sourceLineStart + cols[col]];
+                    norms[lineStart + col] = source.norms[sourceLineStart + cols[col]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Find which pixels of a frame become which pixels of the frame zoomed
+     * around a center, along one axis.
+     *
+     * @param size the number of pixels along the axis.
+     * @param center the pixel that stays in place.
+     * @param factor greater than 1 to zoom in.
+     * @param exactOnly when true, only the pixels that fall exactly on a source
+     * pixel have one; when false, the nearest source pixel is used.
+     * @return for each pixel, the index of its source pixel, or -1 if it has
+     * none.
+     */
+    static int[] getSourceIndexes(int size, int center, double factor, boolean exactOnly) {
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            double position = (i - center) / factor + center;
+            int index;
+            if (exactOnly) {
+                index = position == Math.rint(position) ? (int) position : -1;
+            } else {
+                index = (int) Math.floor(position + 0.5);
+            }
+            indexes[i] = index >= 0 && index < size ? index : -1;
+        }
+        return indexes;
+    }
+
+    /**
+     * Move the content of an array of pixels stored line after line; the
+     * pixels that are uncovered keep their previous values.
+     *
+     * @param array an array of a primitive type, of width * height elements.
+     * @param width
+     * @param height
+     * @param dx
+     * @param dy
+     */
+    static void shift(Object array, int width, int height, int dx, int dy) {
+        if (Math.abs(dx) >= width || Math.abs(dy) >= height) {
+            return;
+        }
+        int length = width - Math.abs(dx);
+        int srcCol = Math.max(-dx, 0);
+        int destCol = Math.max(dx, 0);
+        // Lines are copied in the order that does not overwrite a source line
+        // before it has been moved.
+        if (dy > 0) {
+            for (int line = height - 1; line >= dy; line--) {
+                System.arraycopy(array, (line - dy) * width + srcCol, array, line * width + destCol, length);
+            }
+        } else {
+            for (int line = 0; line < height + dy; line++) {
+                System.arraycopy(array, (line - dy) * width + srcCol, array, line * width + destCol, length);
+            }
+        }
+    }
+}
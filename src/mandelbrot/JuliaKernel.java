@@ -0,0 +1,59 @@
+package mandelbrot;
+
+/**
+ * The suite z(n+1) = z(n)^2 + c for a fixed c, from z(0) at the point: the
+ * filled Julia set of c.
+ *
+ * @author arthu
+ */
+class JuliaKernel implements FractalKernel {
+
+    private final double cx;
+    private final double cy;
+    private final int maxSteps;
+    private final double bailoutRadius;
+
+    public JuliaKernel(double cx, double cy, int maxSteps, double bailoutRadius) {
+        this.cx = cx;
+        this.cy = cy;
+        this.maxSteps = maxSteps;
+        this.bailoutRadius = bailoutRadius;
+    }
+
+    @Override
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    @Override
+    public FractalKernel withMaxSteps(int newMaxSteps) {
+        return new JuliaKernel(cx, cy, newMaxSteps, bailoutRadius);
+    }
+
+    @Override
+    public int iterate(double x, double y, float[] norms, int index) {
+        double bailoutSquared = bailoutRadius * bailoutRadius;
+        double xCurrent = x;
+        double yCurrent = y;
+        double xSquared = x * x;
+        double ySquared = y * y;
+
+        int step = 0;
+        while (step < maxSteps && xSquared + ySquared <= bailoutSquared) {
+            yCurrent = 2 * xCurrent * yCurrent + cy;
+            xCurrent = xSquared - ySquared + cx;
+            xSquared = xCurrent * xCurrent;
+            ySquared = yCurrent * yCurrent;
+            step++;
+        }
+        norms[index] = step < maxSteps ? (float) (xSquared + ySquared) : Float.NaN;
+        return step;
+    }
+
+    @Override
+    public void iterateRow(double[] xs, int xsOffset, double y, int length, int[] steps, float[] norms, int offset) {
+        for (int i = 0; i < length; i++) {
+            steps[offset + i] = iterate(xs[xsOffset + i], y, norms, offset + i);
+        }
+    }
+}
@@ -27,8 +27,56 @@ public class MandelKeyListener implements KeyListener {
     @Override
     public void keyPressed(KeyEvent e) {
         switch (e.getKeyChar()) {
+        case 'a':
+            p.nextStrategy();
+            break;
         case 'b':
             break;
+        case 'c':
+            p.cycleColors(10);
+            break;
+        case 'C':
+            p.cycleColors(-10);
+            break;
+        case 'f':
+            p.askFormula();
+            break;
+        case 'h':
+            p.toggleHistogramEqualization();
+            break;
+        case 'i':
+            p.toggleMetricsOverlay();
+            break;
+        case 'n':
+            p.toggleAutoMaxSteps();
+            break;
+        case 'p':
+            p.nextRamp();
+            break;
+        case 'q':
+            p.snapToTiles();
+            break;
+        case 'r':
+            p.toggleBailoutRadius();
+            break;
+        case 's':
+            p.toggleSmoothColoring();
+            break;
+        case 't':
+            p.nextType();
+            break;
+        case 'z':
+            p.zoomOnMouse(2);
+            break;
+        case 'Z':
+            p.zoomOnMouse(0.5);
+            break;
+        case '+':
+            p.changeNbThreads(1);
+            break;
+        case '-':
+            p.changeNbThreads(-1);
+            break;
         default:
             break;
         }
@@ -2,6 +2,7 @@ package mandelbrot;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.util.Arrays;
 import javax.swing.JFrame;
 
 /**
@@ -11,11 +12,31 @@ public class Mandelbrot {
 
     public static void main(String[] args) {
 
+        // Without display: render one image or a zoom sequence into files.
+        if (args.length > 0 && args[0].equals("render")) {
+            BatchRenderer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("sequence")) {
+            ZoomSequenceRenderer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Serve the tiles to a map viewer, or measure how fast they are served.
+        if (args.length > 0 && args[0].equals("serve")) {
+            TileServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("loadtest")) {
+            TileLoadTest.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         int width = 1000;
         int height = 1000;
 
         JFrame window = new JFrame();
         World world = new World();
+        world.setAutoMaxSteps(true);
         GraphicPanel panel = new GraphicPanel(world);
         panel.setWindow(window);
         window.setPreferredSize(new Dimension(width, height));
@@ -0,0 +1,127 @@
+package mandelbrot;
+
+/**
+ * The suite z(n+1) = z(n)^2 + c, one point at a time.
+ *
+ * @author arthu
+ */
+class MandelbrotKernel implements FractalKernel {
+
+    private final int maxSteps;
+    private final double bailoutRadius;
+
+    public MandelbrotKernel(int maxSteps, double bailoutRadius) {
+        this.maxSteps = maxSteps;
+        this.bailoutRadius = bailoutRadius;
+    }
+
+    /**
+     * Choose the fastest kernel available on this JVM: the vectorized one when
+     * the jdk.incubator.vector module is present (and not disabled with
+     * -Dmandelbrot.vector=false), the scalar one otherwise.
+     *
+     * @param maxSteps
+     * @param bailoutRadius
+     * @return the kernel.
+     */
+    static FractalKernel createFastest(int maxSteps, double bailoutRadius) {
+        boolean vectorAllowed = Boolean.parseBoolean(System.getProperty("mandelbrot.vector", "true"));
+        if (vectorAllowed && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // Loaded by name, so that this class does not depend on the module.
+                return (FractalKernel) Class.forName("mandelbrot.VectorMandelbrotKernel")
+                        .getConstructor(int.class, double.class)
+                        .newInstance(maxSteps, bailoutRadius);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("Vector kernel not available: " + e);
+            }
+        }
+        return new MandelbrotKernel(maxSteps, bailoutRadius);
+    }
+
+    @Override
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    @Override
+    public FractalKernel withMaxSteps(int newMaxSteps) {
+        return new MandelbrotKernel(newMaxSteps, bailoutRadius);
+    }
+
+    @Override
+    public int iterate(double x, double y, float[] norms, int index) {
+
+        if (isInMainCardioidOrBulb(x, y)) {
+            // The suite never escapes, no need to iterate.
+            norms[index] = Float.NaN;
+            return maxSteps;
+        }
+
+        double xCurrent = 0;
+        double yCurrent = 0;
+
+        // Brent's cycle detection: the orbit is compared with a point saved
+        // at each power of two; if it comes back exactly to that point, it is
+        // periodic and will never escape.
+        double xSaved = 0;
+        double ySaved = 0;
+        int period = 0;
+        int periodLimit = 1;
+
+        // The squares are kept from one step to the next, they serve both
+        // for the bailout test and for the next value of the suite.
+        double bailoutSquared = bailoutRadius * bailoutRadius;
+        double xSquared = 0;
+        double ySquared = 0;
+
+        int step = 0;
+        while (step < maxSteps && xSquared + ySquared <= bailoutSquared) {
+            yCurrent = 2 * xCurrent * yCurrent + y;
+            xCurrent = xSquared - ySquared + x;
+            xSquared = xCurrent * xCurrent;
+            ySquared = yCurrent * yCurrent;
+            step++;
+
+            if (xCurrent == xSaved && yCurrent == ySaved) {
+                norms[index] = Float.NaN;
+                return maxSteps;
+            }
+            period++;
+            if (period == periodLimit) {
+                period = 0;
+                periodLimit *= 2;
+                xSaved = xCurrent;
+                ySaved = yCurrent;
+            }
+        }
+        norms[index] = step < maxSteps ? (float) (xSquared + ySquared) : Float.NaN;
+        return step;
+    }
+
+    @Override
+    public void iterateRow(double[] xs, int xsOffset, double y, int length, int[] steps, float[] norms, int offset) {
+        for (int i = 0; i < length; i++) {
+            steps[offset + i] = iterate(xs[xsOffset + i], y, norms, offset + i);
+        }
+    }
+
+    /**
+     * Test whether c = x + iy lies in the main cardioid or in the period-2
+     * bulb of the Mandelbrot set, where the suite is known to stay bounded.
+     *
+     * @param x
+     * @param y
+     * @return true if the point belongs to the set.
+     */
+    static boolean isInMainCardioidOrBulb(double x, double y) {
+        double y2 = y * y;
+        double xShifted = x - 0.25;
+        double q = xShifted * xShifted + y2;
+        if (q * (q + xShifted) < 0.25 * y2) {
+            return true;
+        }
+        double xBulb = x + 1;
+        return xBulb * xBulb + y2 < 0.0625;
+    }
+}
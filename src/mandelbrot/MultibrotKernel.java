@@ -0,0 +1,66 @@
+package mandelbrot;
+
+/**
+ * The suite z(n+1) = z(n)^d + c for an integer degree d of at least 2; the
+ * Mandelbrot set is the one of degree 2.
+ *
+ * @author arthu
+ */
+class MultibrotKernel implements FractalKernel {
+
+    private final int degree;
+    private final int maxSteps;
+    private final double bailoutRadius;
+
+    public MultibrotKernel(int degree, int maxSteps, double bailoutRadius) {
+        if (degree < 2) {
+            throw new IllegalArgumentException("The degree must be at least 2: " + degree);
+        }
+        this.degree = degree;
+        this.maxSteps = maxSteps;
+        this.bailoutRadius = bailoutRadius;
+    }
+
+    @Override
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    @Override
+    public FractalKernel withMaxSteps(int newMaxSteps) {
+        return new MultibrotKernel(degree, newMaxSteps, bailoutRadius);
+    }
+
+    @Override
+    public int iterate(double x, double y, float[] norms, int index) {
+        double bailoutSquared = bailoutRadius * bailoutRadius;
+        double xCurrent = 0;
+        double yCurrent = 0;
+        double norm = 0;
+
+        int step = 0;
+        while (step < maxSteps && norm <= bailoutSquared) {
+            // z^d by repeated multiplications, the degree is small.
+            double xPower = xCurrent;
+            double yPower = yCurrent;
+            for (int i = 1; i < degree; i++) {
+                double xNext = xPower * xCurrent - yPower * yCurrent;
+                yPower = xPower * yCurrent + yPower * xCurrent;
+                xPower = xNext;
+            }
+            xCurrent = xPower + x;
+            yCurrent = yPower + y;
+            norm = xCurrent * xCurrent + yCurrent * yCurrent;
+            step++;
+        }
+        norms[index] = step < maxSteps ? (float) norm : Float.NaN;
+        return step;
+    }
+
+    @Override
+    public void iterateRow(double[] xs, int xsOffset, double y, int length, int[] steps, float[] norms, int offset) {
+        for (int i = 0; i < length; i++) {
+            steps[offset + i] = iterate(xs[xsOffset + i], y, norms, offset + i);
+        }
+    }
+}
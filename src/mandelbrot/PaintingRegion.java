@@ -0,0 +1,116 @@
+package mandelbrot;
+
+/**
+ * A rectangle of the screen waiting to be refined by the priority strategy.
+ * Its level of detail is the distance between its samples; its error is an
+ * estimation of how wrong its current squares look, given by the variance of
+ * the steps at its corners. Regions compare so that the largest visual error,
+ * the error multiplied by the area of a square, comes first.
+ *
+ * @author arthu
+ */
+class PaintingRegion implements Comparable<PaintingRegion> {
+
+    // Regions this small are refined without being split.
+    private static final int MIN_SIZE = 32;
+
+    final int x, y, width, height;
+    // Distance between two samples of the region, a power of two.
+    final int step;
+    final double error;
+    private final double priority;
+
+    /**
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @param step the distance between the samples that the region computes.
+     * @param error the estimated error of the region, infinite when unknown.
+     */
+    PaintingRegion(int x, int y, int width, int height, int step, double error) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.step = step;
+        this.error = error;
+        priority = error * step * step;
+    }
+
+    /**
+     * Create the regions that refine this one with half its step, once its
+     * samples are computed: its four quarters, or itself when it is too small.
+     *
+     * @param steps the steps of the buffer, where the samples of this region
+     * are known.
+     * @param lineWidth
+     * @param nbLines
+     * @return the finer regions, none when the region is at the pixel level.
+     */
+    PaintingRegion[] split(int[] steps, int lineWidth, int nbLines) {
+        if (step == 1) {
+            return new PaintingRegion[0];
+        }
+        int childStep = step / 2;
+        if (width < 2 * MIN_SIZE || height < 2 * MIN_SIZE) {
+            return new PaintingRegion[]{
+                new PaintingRegion(x, y, width, height, childStep, getCornerVariance(x, y, width, height, steps, lineWidth, nbLines))
+            };
+        }
+        int halfWidth = width / 2;
+        int halfHeight = height / 2;
+        PaintingRegion[] children = new PaintingRegion[4];
+        int i = 0;
+        for (int childY : new int[]{y, y + halfHeight}) {
+            int childHeight = childY == y ? halfHeight : height - halfHeight;
+            for (int childX : new int[]{x, x + halfWidth}) {
+                int childWidth = childX == x ? halfWidth : width - halfWidth;
+                children[i++] = new PaintingRegion(childX, childY, childWidth, childHeight, childStep,
+                        getCornerVariance(childX, childY, childWidth, childHeight, steps, lineWidth, nbLines));
+            }
+        }
+        return children;
+    }
+
+    /**
+     * The variance of the steps of the samples of this level on and around a
+     * rectangle, from the cells that contain its corners. A flat area has
+     * none.
+     */
+    private double getCornerVariance(int rx, int ry, int w, int h, int[] steps, int lineWidth, int nbLines) {
+        int colMin = rx / step * step;
+        int colMax = Math.min((rx + w + step - 1) / step * step, (lineWidth - 1) / step * step);
+        int lineMin = ry / step * step;
+        int lineMax = Math.min((ry + h + step - 1) / step * step, (nbLines - 1) / step * step);
+        double sum = 0;
+        double sumOfSquares = 0;
+        int nbSamples = 0;
+        for (int line = lineMin; line <= lineMax; line += step) {
+            for (int col = colMin; col <= colMax; col += step) {
+                int value = steps[line * lineWidth + col];
+                if (value != IterationBuffer.NOT_COMPUTED) {
+                    sum += value;
+                    sumOfSquares += (double) value * value;
+                    nbSamples++;
+                }
+            }
+        }
+        if (nbSamples < 2) {
+            // Nothing is known around the region yet: refine it early.
+            return Double.POSITIVE_INFINITY;
+        }
+        double mean = sum / nbSamples;
+        return Math.max(0, sumOfSquares / nbSamples - mean * mean);
+    }
+
+    @Override
+    public int compareTo(PaintingRegion other) {
+        int comparison = Double.compare(other.priority, priority);
+        if (comparison == 0) {
+            // Among equal errors, the coarser level first.
+            comparison = Integer.compare(other.step, step);
+        }
+        return comparison;
+    }
+}
@@ -0,0 +1,96 @@
+package mandelbrot;
+
+import colorramp.ColorRamp;
+
+/**
+ * A color ramp baked into lookup tables of packed RGB values.
+ * The ramp is evaluated once per iteration count when the palette is built, so
+ * that coloring a pixel is a single array load and allocates nothing.
+ *
+ * @author arthu
+ */
+class Palette {
+
+    // Number of entries per iteration in the table used for smooth coloring.
+    static final int SMOOTH_RESOLUTION = 16;
+
+    private final int maxSteps;
+    private final int[] table;
+    private final int[] smoothTable;
+
+    public Palette(ColorRamp ramp, int maxSteps) {
+        this(ramp, maxSteps, maxSteps);
+    }
+
+    /**
+     * @param ramp
+     * @param maxSteps
+     * @param rampMaxSteps the number of steps the ramp was designed for; it is
+     * stretched so that its last color is the one of maxSteps.
+     */
+    public Palette(ColorRamp ramp, int maxSteps, int rampMaxSteps) {
+        this.maxSteps = maxSteps;
+
+        table = new int[maxSteps + 1];
+        for (int step = 0; step <= maxSteps; step++) {
+            table[step] = ramp.getValue((int) ((long) step * rampMaxSteps / maxSteps)).getRGB();
+        }
+
+        // The smooth table interpolates linearly between two consecutive steps.
+        smoothTable = new int[maxSteps * SMOOTH_RESOLUTION + 1];
+        for (int i = 0; i < smoothTable.length; i++) {
+            int step = i / SMOOTH_RESOLUTION;
+            int fraction = i - step * SMOOTH_RESOLUTION;
+            if (fraction == 0) {
+                smoothTable[i] = table[step];
+            } else {
+                smoothTable[i] = mix(table[step], table[step + 1], (double) fraction / SMOOTH_RESOLUTION);
+            }
+        }
+    }
+
+    int getMaxSteps() {
+        return maxSteps;
+    }
+
+    /**
+     * @param step
+     * @return the color of a point that escaped after the given number of
+     * steps, as a packed RGB value.
+     */
+    int getRGB(int step) {
+        if (step < 0) {
+            step = 0;
+        } else if (step > maxSteps) {
+            step = maxSteps;
+        }
+        return table[step];
+    }
+
+    /**
+     * @param fractionalStep a continuous iteration count.
+     * @return the color of a point for smooth coloring, as a packed RGB value.
+     */
+    int getSmoothRGB(double fractionalStep) {
+        int index = (int) (fractionalStep * SMOOTH_RESOLUTION);
+        if (index < 0) {
+            index = 0;
+        } else if (index >= smoothTable.length) {
+            index = smoothTable.length - 1;
+        }
+        return smoothTable[index];
+    }
+
+    private static int mix(int rgb0, int rgb1, double t) {
+        int r = mixChannel(rgb0 >> 16, rgb1 >> 16, t);
+        int g = mixChannel(rgb0 >> 8, rgb1 >> 8, t);
+        int b = mixChannel(rgb0, rgb1, t);
+        return 0xff000000 | r << 16 | g << 8 | b;
+    }
+
+    private static int mixChannel(int c0, int c1, double t) {
+        c0 &= 0xff;
+        c1 &= 0xff;
+        return (int) (c0 + t * (c1 - c0) + 0.5);
+    }
+}
@@ -0,0 +1,166 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * The Mandelbrot set at zooms deeper than double precision allows.
+ *
+ * One reference orbit Z(n) is computed with arbitrary precision at the center
+ * of the viewport. Each pixel c = C + dc then only iterates its difference with
+ * that orbit, z(n) = Z(n) + dz(n), which is small enough for doubles:
+ * dz(n+1) = 2 Z(n) dz(n) + dz(n)^2 + dc.
+ *
+ * When the pixel orbit gets closer to zero than its difference with the
+ * reference, the difference loses its precision (the usual perturbation
+ * glitch). The pixel is then rebased: its current value becomes the new
+ * difference and it restarts from the beginning of the reference orbit.
+ *
+ * The coordinates given to this kernel are offsets from the center.
+ *
+ * @author arthu
+ */
+class PerturbationKernel implements FractalKernel {
+
+    private final int maxSteps;
+    private final double bailoutRadius;
+    private final BigDecimal xCenter;
+    private final BigDecimal yCenter;
+    private final MathContext mc;
+
+    // The reference orbit, rounded to doubles; zr[0] = zi[0] = 0.
+    private final double[] zr;
+    private final double[] zi;
+    // Number of values of the reference orbit.
+    private final int referenceLength;
+
+    public PerturbationKernel(BigDecimal xCenter, BigDecimal yCenter, MathContext mc,
+            int maxSteps, double bailoutRadius) {
+        this.maxSteps = maxSteps;
+        this.bailoutRadius = bailoutRadius;
+        this.xCenter = xCenter;
+        this.yCenter = yCenter;
+        this.mc = mc;
+
+        zr = new double[maxSteps + 1];
+        zi = new double[maxSteps + 1];
+
+        // The reference keeps going until it escapes far enough that no pixel
+        // can still need it.
+        double referenceBailout = Math.max(bailoutRadius, 2) * Math.max(bailoutRadius, 2) * 4;
+        BigDecimal two = BigDecimal.valueOf(2);
+        BigDecimal xCurrent = BigDecimal.ZERO;
+        BigDecimal yCurrent = BigDecimal.ZERO;
+        int length = 1;
+        while (length <= maxSteps) {
+            BigDecimal xNext = xCurrent.multiply(xCurrent, mc).subtract(yCurrent.multiply(yCurrent, mc), mc).add(xCenter, mc);
+            BigDecimal yNext = two.multiply(xCurrent, mc).multiply(yCurrent, mc).add(yCenter, mc);
+            xCurrent = xNext;
+            yCurrent = yNext;
+            zr[length] = xCurrent.doubleValue();
+            zi[length] = yCurrent.doubleValue();
+            length++;
+            if (zr[length - 1] * zr[length - 1] + zi[length - 1] * zi[length - 1] > referenceBailout) {
+                break;
+            }
+        }
+        referenceLength = length;
+    }
+
+    /**
+     * The same reference orbit with fewer steps.
+     */
+    private PerturbationKernel(PerturbationKernel kernel, int maxSteps) {
+        this.maxSteps = maxSteps;
+        bailoutRadius = kernel.bailoutRadius;
+        xCenter = kernel.xCenter;
+        yCenter = kernel.yCenter;
+        mc = kernel.mc;
+        zr = kernel.zr;
+        zi = kernel.zi;
+        referenceLength = kernel.referenceLength;
+    }
+
+    /**
+     * Tell whether the reference orbit also suits another viewport: its center
+     * must be the same to within a thousandth of a pixel, and it must not need
+     * more precision.
+     *
+     * @param viewport
+     * @param otherMaxSteps
+     * @param otherBailoutRadius
+     * @return true if this kernel computes the viewport exactly as a new one
+     * would.
+     */
+    boolean suits(Viewport viewport, int otherMaxSteps, double otherBailoutRadius) {
+        MathContext needed = Viewport.getMathContext(viewport.zoom);
+        if (otherMaxSteps != maxSteps || otherBailoutRadius != bailoutRadius
+                || needed.getPrecision() > mc.getPrecision()) {
+            return false;
+        }
+        BigDecimal tolerance = BigDecimal.ONE.divide(new BigDecimal(viewport.zoom * 1000), needed);
+        return viewport.getCenterX().subtract(xCenter).abs().compareTo(tolerance) <= 0
+                && viewport.getCenterY().subtract(yCenter).abs().compareTo(tolerance) <= 0;
+    }
+
+    @Override
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    @Override
+    public FractalKernel withMaxSteps(int newMaxSteps) {
+        return new PerturbationKernel(this, Math.min(newMaxSteps, maxSteps));
+    }
+
+    @Override
+    public boolean isRelative() {
+        return true;
+    }
+
+    @Override
+    public int iterate(double dcx, double dcy, float[] norms, int index) {
+        double bailoutSquared = bailoutRadius * bailoutRadius;
+
+        double dzx = 0;
+        double dzy = 0;
+        double zx = 0;
+        double zy = 0;
+        double norm = 0;
+        // Position in the reference orbit.
+        int n = 0;
+
+        int step = 0;
+        while (step < maxSteps && norm <= bailoutSquared) {
+            double refX = zr[n];
+            double refY = zi[n];
+            double dzxNext = 2 * (refX * dzx - refY * dzy) + dzx * dzx - dzy * dzy + dcx;
+            double dzyNext = 2 * (refX * dzy + refY * dzx) + 2 * dzx * dzy + dcy;
+            dzx = dzxNext;
+            dzy = dzyNext;
+            n++;
+            step++;
+
+            zx = zr[n] + dzx;
+            zy = zi[n] + dzy;
+            norm = zx * zx + zy * zy;
+
+            // Rebase when the full value is smaller than the difference, or
+            // when the reference orbit is exhausted.
+            if (norm < dzx * dzx + dzy * dzy || n == referenceLength - 1) {
+                dzx = zx;
+                dzy = zy;
+                n = 0;
+            }
+        }
+        norms[index] = step < maxSteps ? (float) norm : Float.NaN;
+        return step;
+    }
+
+    @Override
+    public void iterateRow(double[] xs, int xsOffset, double y, int length, int[] steps, float[] norms, int offset) {
+        for (int i = 0; i < length; i++) {
+            steps[offset + i] = iterate(xs[xsOffset + i], y, norms, offset + i);
+        }
+    }
+}
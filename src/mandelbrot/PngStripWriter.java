@@ -0,0 +1,197 @@
+package mandelbrot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A PNG encoder that receives the image strip after strip.
+ * The lines are filtered with the Sub filter, which only needs the line
+ * itself, and compressed into one zlib stream split in IDAT chunks. The stream
+ * is fully flushed at the end of each strip: a new compressor can then
+ * continue it, which lets a render resume after a crash from the position in
+ * the file and the checksum of the data written so far.
+ *
+ * @author arthu
+ */
+class PngStripWriter implements StripWriter {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+    private static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9c};
+    private static final int ADLER_BASE = 65521;
+    private static final int FILTER_SUB = 1;
+    // Size of the IDAT chunks.
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+    private final CRC32 crc;
+    private final Adler32 stripAdler;
+    // Checksum of all the data given to the compressor before this strip.
+    private long adler;
+    private int nbLinesWritten;
+
+    private final byte[] line;
+    private final byte[] compressed;
+
+    /**
+     * @param file
+     * @param width
+     * @param height
+     * @param state the state of a previous writer of the same file, or null
+     * to start a new file.
+     * @throws IOException
+     */
+    public PngStripWriter(File file, int width, int height, Properties state) throws IOException {
+        this.width = width;
+        this.height = height;
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        crc = new CRC32();
+        stripAdler = new Adler32();
+        line = new byte[1 + 3 * width];
+        compressed = new byte[CHUNK_SIZE];
+
+        if (state == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            write(ByteBuffer.wrap(SIGNATURE));
+            ByteBuffer header = ByteBuffer.allocate(13);
+            header.putInt(width).putInt(height);
+            header.put((byte) 8); // bits per channel
+            header.put((byte) 2); // RGB
+            header.put((byte) 0).put((byte) 0).put((byte) 0); // deflate, adaptive filtering, no interlace
+            writeChunk("IHDR", header.array(), 13);
+            writeChunk("IDAT", ZLIB_HEADER, ZLIB_HEADER.length);
+            adler = 1;
+            nbLinesWritten = 0;
+        } else {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+            long position = Long.parseLong(state.getProperty("position"));
+            channel.truncate(position);
+            channel.position(position);
+            adler = Long.parseLong(state.getProperty("adler"));
+            nbLinesWritten = Integer.parseInt(state.getProperty("lines"));
+        }
+    }
+
+    @Override
+    public void writeStrip(IterationBuffer iterations, RenderTarget target, int nbLines) throws IOException {
+        int[] pixels = target.pixels;
+        for (int lineIndex = 0; lineIndex < nbLines; lineIndex++) {
+            int lineStart = lineIndex * target.width;
+            line[0] = FILTER_SUB;
+            int previous = 0;
+            for (int col = 0; col < width; col++) {
+                int rgb = pixels[lineStart + col];
+                line[1 + 3 * col] = (byte) ((rgb >> 16) - (previous >> 16));
+                line[2 + 3 * col] = (byte) ((rgb >> 8) - (previous >> 8));
+                line[3 + 3 * col] = (byte) (rgb - previous);
+                previous = rgb;
+            }
+            stripAdler.update(line);
+            deflater.setInput(line);
+            while (!deflater.needsInput()) {
+                writeCompressed(deflater.deflate(compressed, 0, compressed.length, Deflater.NO_FLUSH));
+            }
+        }
+        // Byte-aligned and independent from the previous data: a new
+        // compressor may continue the stream from here.
+        int length;
+        do {
+            length = deflater.deflate(compressed, 0, compressed.length, Deflater.FULL_FLUSH);
+            writeCompressed(length);
+        } while (length == compressed.length);
+
+        adler = combineAdler(adler, stripAdler.getValue(), (long) nbLines * line.length);
+        stripAdler.reset();
+        nbLinesWritten += nbLines;
+        channel.force(false);
+    }
+
+    @Override
+    public int getNbLinesWritten() {
+        return nbLinesWritten;
+    }
+
+    @Override
+    public Properties getState() throws IOException {
+        Properties state = new Properties();
+        state.setProperty("position", Long.toString(channel.position()));
+        state.setProperty("adler", Long.toString(adler));
+        state.setProperty("lines", Integer.toString(nbLinesWritten));
+        return state;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (nbLinesWritten != height) {
+            throw new IOException("Only " + nbLinesWritten + " lines of " + height + " were written.");
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            writeCompressed(deflater.deflate(compressed));
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(4);
+        trailer.putInt((int) adler);
+        writeChunk("IDAT", trailer.array(), 4);
+        writeChunk("IEND", new byte[0], 0);
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        channel.close();
+    }
+
+    private void writeCompressed(int length) throws IOException {
+        if (length > 0) {
+            writeChunk("IDAT", compressed, length);
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        ByteBuffer chunk = ByteBuffer.allocate(12 + length);
+        chunk.putInt(length).put(typeBytes).put(data, 0, length).putInt((int) crc.getValue());
+        chunk.flip();
+        write(chunk);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @param adler1 the checksum of a first sequence of bytes.
+     * @param adler2 the checksum of a second sequence.
+     * @param length2 the length of the second sequence.
+     * @return the checksum of both sequences one after the other, as computed
+     * by zlib's adler32_combine.
+     */
+    static long combineAdler(long adler1, long adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = remainder * sum1 % ADLER_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += (adler1 >> 16 & 0xffff) + (adler2 >> 16 & 0xffff) + ADLER_BASE - remainder;
+        sum1 %= ADLER_BASE;
+        sum2 %= ADLER_BASE;
+        return sum2 << 16 | sum1;
+    }
+}
@@ -0,0 +1,103 @@
+package mandelbrot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * Writes the raw escape data of an image, strip after strip, through a
+ * memory-mapped file.
+ * The file starts with RAW_MAGIC, the width, the height and the maximum number
+ * of steps; then come the steps and the squared modulus of each pixel, line
+ * after line, all in big-endian order. Each strip has a fixed place in the
+ * file, so resuming only needs the number of lines already written.
+ *
+ * @author arthu
+ */
+class RawStripWriter implements StripWriter {
+
+    static final int RAW_MAGIC = 0x4d4e444c; // "MNDL"
+    static final int HEADER_SIZE = 16;
+    static final int PIXEL_SIZE = 8;
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private int nbLinesWritten;
+
+    /**
+     * @param file
+     * @param width
+     * @param height
+     * @param maxSteps the number of steps of the kernel, that the points of
+     * the set reach.
+     * @param state the state of a previous writer of the same file, or null
+     * to start a new file.
+     * @throws IOException
+     */
+    public RawStripWriter(File file, int width, int height, int maxSteps, Properties state) throws IOException {
+        this.width = width;
+        this.height = height;
+        if (state == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(RAW_MAGIC).putInt(width).putInt(height).putInt(maxSteps);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            nbLinesWritten = 0;
+        } else {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            nbLinesWritten = Integer.parseInt(state.getProperty("lines"));
+        }
+    }
+
+    @Override
+    public void writeStrip(IterationBuffer iterations, RenderTarget target, int nbLines) throws IOException {
+        long lineSize = (long) PIXEL_SIZE * width;
+        // A mapping holds at most 2 GB.
+        int nbLinesPerMapping = (int) Math.max(1, Integer.MAX_VALUE / lineSize);
+        for (int first = 0; first < nbLines; first += nbLinesPerMapping) {
+            int count = Math.min(nbLinesPerMapping, nbLines - first);
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE + (nbLinesWritten + first) * lineSize, count * lineSize);
+            int end = (first + count) * iterations.width;
+            for (int i = first * iterations.width; i < end; i++) {
+                mapping.putInt(iterations.steps[i]).putFloat(iterations.norms[i]);
+            }
+            mapping.force();
+        }
+        nbLinesWritten += nbLines;
+    }
+
+    @Override
+    public int getNbLinesWritten() {
+        return nbLinesWritten;
+    }
+
+    @Override
+    public Properties getState() {
+        Properties state = new Properties();
+        state.setProperty("lines", Integer.toString(nbLinesWritten));
+        return state;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (nbLinesWritten != height) {
+            throw new IOException("Only " + nbLinesWritten + " lines of " + height + " were written.");
+        }
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
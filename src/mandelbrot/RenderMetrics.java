@@ -0,0 +1,180 @@
+package mandelbrot;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Collects the metrics of the frames of a scheduler: the counters of the
+ * job being computed, those of the last finished one, and the totals. They
+ * are published through JMX as mandelbrot:type=RenderMetrics, and shown by
+ * the overlay of the panel.
+ *
+ * @author arthu
+ */
+class RenderMetrics implements RenderMetricsMXBean {
+
+    static final String OBJECT_NAME = "mandelbrot:type=RenderMetrics";
+
+    private volatile long currentGeneration;
+    private volatile FrameMetrics current;
+    private volatile long lastGeneration;
+    private volatile FrameMetrics last;
+    private volatile long blitNanos;
+    private volatile long firstPixelsNanos;
+
+    private final AtomicLong nbFramesDone = new AtomicLong();
+    private final AtomicLong totalSteps = new AtomicLong();
+    private final AtomicLong totalPixelsComputed = new AtomicLong();
+    private final AtomicLong totalPixelsReused = new AtomicLong();
+
+    /**
+     * Publish these metrics through the platform MBean server; a second
+     * scheduler in the same JVM replaces the first one.
+     */
+    void register() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException e) {
+            System.err.println("Render metrics not published: " + e.getMessage());
+        }
+    }
+
+    void frameStarted(long generation, FrameMetrics metrics) {
+        currentGeneration = generation;
+        current = metrics;
+    }
+
+    void frameDone(long generation, FrameMetrics metrics) {
+        lastGeneration = generation;
+        last = metrics;
+        nbFramesDone.incrementAndGet();
+        totalSteps.addAndGet(metrics.getNbSteps());
+        totalPixelsComputed.addAndGet(metrics.getNbPixelsComputed());
+        totalPixelsReused.addAndGet(metrics.getNbPixelsReused());
+    }
+
+    void blitDone(long nanos) {
+        blitNanos = nanos;
+    }
+
+    void firstPixelsShown(long nanos) {
+        firstPixelsNanos = nanos;
+    }
+
+    /**
+     * @return the lines shown by the overlay, about the frame being computed.
+     */
+    String[] getOverlayLines() {
+        FrameMetrics metrics = current;
+        if (metrics == null) {
+            return new String[0];
+        }
+        return new String[]{
+            String.format("frame %d: %d ms, first pixels %.1f ms%s", currentGeneration,
+                    metrics.getElapsedNanos() / 1000000, firstPixelsNanos / 1e6,
+                    firstPixelsNanos > RenderScheduler.FRAME_NANOS ? " (late)" : ""),
+            String.format("pixels: %d computed, %d filled, %d reused", metrics.getNbPixelsComputed(),
+                    metrics.getNbPixelsFilled(), metrics.getNbPixelsReused()),
+            String.format("steps: %.1f M", metrics.getNbSteps() / 1e6),
+            String.format("kernel %.1f ms, coloring %.1f ms, blit %.1f ms", metrics.getKernelNanos() / 1e6,
+                    metrics.getColoringNanos() / 1e6, blitNanos / 1e6),
+            String.format("tiles %d, queue depth %d, threads %.0f %% busy", metrics.getNbTiles(),
+                    metrics.getMaxQueueDepth(), 100 * metrics.getThreadUtilization())
+        };
+    }
+
+    @Override
+    public long getGeneration() {
+        return lastGeneration;
+    }
+
+    @Override
+    public long getFrameMillis() {
+        FrameMetrics metrics = last;
+        return metrics == null ? 0 : metrics.getElapsedNanos() / 1000000;
+    }
+
+    @Override
+    public long getSteps() {
+        FrameMetrics metrics = last;
+        return metrics == null ? 0 : metrics.getNbSteps();
+    }
+
+    @Override
+    public long getPixelsComputed() {
+        FrameMetrics metrics = last;
+        return metrics == null ? 0 : metrics.getNbPixelsComputed();
+    }
+
+    @Override
+    public long getPixelsReused() {
+        FrameMetrics metrics = last;
+        return metrics == null ? 0 : metrics.getNbPixelsReused();
+    }
+
+    @Override
+    public long getPixelsFilled() {
+        FrameMetrics metrics = last;
+        return metrics == null ? 0 : metrics.getNbPixelsFilled();
+    }
+
+    @Override
+    public double getKernelMillis() {
+        FrameMetrics metrics = last;
+        return metrics == null ? 0 : metrics.getKernelNanos() / 1e6;
+    }
+
+    @Override
+    public double getColoringMillis() {
+        FrameMetrics metrics = last;
+        return metrics == null ? 0 : metrics.getColoringNanos() / 1e6;
+    }
+
+    @Override
+    public double getBlitMillis() {
+        return blitNanos / 1e6;
+    }
+
+    @Override
+    public double getFirstPixelsMillis() {
+        return firstPixelsNanos / 1e6;
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        FrameMetrics metrics = last;
+        return metrics == null ? 0 : metrics.getMaxQueueDepth();
+    }
+
+    @Override
+    public double getThreadUtilization() {
+        FrameMetrics metrics = last;
+        return metrics == null ? 0 : metrics.getThreadUtilization();
+    }
+
+    @Override
+    public long getFramesDone() {
+        return nbFramesDone.get();
+    }
+
+    @Override
+    public long getTotalSteps() {
+        return totalSteps.get();
+    }
+
+    @Override
+    public long getTotalPixelsComputed() {
+        return totalPixelsComputed.get();
+    }
+
+    @Override
+    public long getTotalPixelsReused() {
+        return totalPixelsReused.get();
+    }
+}
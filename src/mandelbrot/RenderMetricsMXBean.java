@@ -0,0 +1,42 @@
+package mandelbrot;
+
+/**
+ * The render counters, as seen through JMX. The values of a frame are those
+ * of the last job that finished; the totals add all of them up.
+ *
+ * @author arthu
+ */
+public interface RenderMetricsMXBean {
+
+    long getGeneration();
+
+    long getFrameMillis();
+
+    long getSteps();
+
+    long getPixelsComputed();
+
+    long getPixelsReused();
+
+    long getPixelsFilled();
+
+    double getKernelMillis();
+
+    double getColoringMillis();
+
+    double getBlitMillis();
+
+    double getFirstPixelsMillis();
+
+    int getMaxQueueDepth();
+
+    double getThreadUtilization();
+
+    long getFramesDone();
+
+    long getTotalSteps();
+
+    long getTotalPixelsComputed();
+
+    long getTotalPixelsReused();
+}
@@ -0,0 +1,329 @@
+package mandelbrot;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Turn the changes of the viewport into render jobs, away from the event
+ * dispatch thread.
+ * Every change gets a new generation number and cancels the job of the
+ * previous one at once. Then, on the scheduler thread, the frame is adapted to
+ * the change (shifted, rescaled or cleared) and a job computes the pixels that
+ * are missing, unless a newer change is already waiting; the tiles found in the
+ * tile cache are loaded first, and the complete ones stored once the job is
+ * done. The panel only draws the target, when the scheduler or the tiles ask
+ * for it.
+ *
+ * @author arthu
+ */
+class RenderScheduler {
+
+    // Duration of one frame at 60 Hz: a change should show its first pixels
+    // within this delay.
+    static final long FRAME_NANOS = 1000000000L / 60;
+
+    private final World world;
+    private final TileRenderer renderer;
+    private final Runnable repaint;
+    // Null when the tiles are not cached.
+    private final TileCache tileCache;
+    private final ExecutorService executor;
+    private final AtomicLong generation;
+    private final RenderMetrics metrics;
+
+    // The frame is only modified by the scheduler thread and the tiles of its
+    // current job.
+    private volatile IterationBuffer iterations;
+    private volatile RenderTarget target;
+    private IterationBuffer previousIterations;
+    private RenderTarget previousTarget;
+    // True when the target shows a zoomed preview of the pixels that are not
+    // computed yet.
+    private boolean previewShown;
+    private volatile TileRenderer.Job currentJob;
+
+    // Delay between the last change and the first pixels it painted.
+    private volatile long firstPixelsLatency;
+
+    /**
+     * @param world
+     * @param repaint asks for the target to be drawn again; it is called from
+     * any thread.
+     * @param tileCache where the frames that fall on the tiles of a level are
+     * loaded from and stored, or null.
+     */
+    public RenderScheduler(World world, Runnable repaint, TileCache tileCache) {
+        this.world = world;
+        this.repaint = repaint;
+        this.tileCache = tileCache;
+        renderer = new TileRenderer();
+        // On screen, the detailed areas matter more than the time of the
+        // whole frame.
+        renderer.setStrategy(TileRenderer.Strategy.PRIORITY);
+        generation = new AtomicLong();
+        metrics = new RenderMetrics();
+        metrics.register();
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "render-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    TileRenderer getRenderer() {
+        return renderer;
+    }
+
+    TileCache getTileCache() {
+        return tileCache;
+    }
+
+    RenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the image of the latest frame, or null before the first one.
+     */
+    RenderTarget getTarget() {
+        return target;
+    }
+
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return the delay between the last change and its first pixels, in
+     * nanoseconds.
+     */
+    long getFirstPixelsLatency() {
+        return firstPixelsLatency;
+    }
+
+    /**
+     * Compute a new frame from the beginning.
+     *
+     * @param viewport
+     * @return the generation of the frame.
+     */
+    long render(Viewport viewport) {
+        return render(viewport, () -> {
+        });
+    }
+
+    /**
+     * Change the world or the renderer, then compute a new frame from the
+     * beginning. The change runs on the scheduler thread, once the tiles of
+     * the previous job, which read the world, are stopped.
+     *
+     * @param viewport
+     * @param worldChange
+     * @return the generation of the frame.
+     */
+    long render(Viewport viewport, Runnable worldChange) {
+        return submit(viewport, false, worldChange, () -> {
+            iterations.clear();
+            target.clear();
+            previewShown = false;
+        });
+    }
+
+    /**
+     * The view moved by (dx, dy) pixels: keep the pixels that are still
+     * visible and only compute the uncovered strips.
+     *
+     * @param viewport the new viewport.
+     * @param dx
+     * @param dy
+     * @return the generation of the frame.
+     */
+    long pan(Viewport viewport, int dx, int dy) {
+        return submit(viewport, true, null, () -> {
+            iterations.shift(dx, dy);
+            target.shift(dx, dy);
+        });
+    }
+
+    /**
+     * The view was zoomed around a pixel: rescale the current frame as a
+     * preview of the new one, then compute the pixels that are not known.
+     *
+     * @param viewport the new viewport.
+     * @param xCenter
+     * @param yCenter
+     * @param factor greater than 1 to zoom in.
+     * @return the generation of the frame.
+     */
+    long zoom(Viewport viewport, int xCenter, int yCenter, double factor) {
+        return submit(viewport, true, null, () -> {
+            if (previousTarget == null || previousTarget.width != target.width || previousTarget.height != target.height) {
+                previousTarget = new RenderTarget(target.width, target.height);
+                previousIterations = new IterationBuffer(target.width, target.height);
+            }
+            RenderTarget zoomedTarget = previousTarget;
+            IterationBuffer zoomedIterations = previousIterations;
+            zoomedTarget.zoomFrom(target, xCenter, yCenter, factor);
+            zoomedIterations.zoomFrom(iterations, xCenter, yCenter, factor);
+            previousTarget = target;
+            previousIterations = iterations;
+            target = zoomedTarget;
+            iterations = zoomedIterations;
+            previewShown = true;
+        });
+    }
+
+    /**
+     * Apply new coloring settings to the current frame, without computing it
+     * again.
+     *
+     * @param colorChange changes the coloring settings of the world, on the
+     * scheduler thread.
+     */
+    void recolor(Runnable colorChange) {
+        executor.execute(() -> {
+            colorChange.run();
+            if (target != null) {
+                world.colorize(iterations, target);
+                repaint.run();
+            }
+        });
+    }
+
+    /**
+     * Start a new generation.
+     *
+     * @param viewport
+     * @param showsPixels true when adaptFrame leaves pixels of the new viewport
+     * in the target.
+     * @param worldChange changes the world once the previous job is stopped,
+     * may be null.
+     * @param adaptFrame modifies the frame of the previous generation so that
+     * it matches the new viewport; it runs on the scheduler thread.
+     * @return the new generation.
+     */
+    private long submit(Viewport viewport, boolean showsPixels, Runnable worldChange, Runnable adaptFrame) {
+        long requestNanos = System.nanoTime();
+        long newGeneration = generation.incrementAndGet();
+        // The tiles stop at the end of their current line; they are waited
+        // for on the scheduler thread.
+        TileRenderer.Job job = currentJob;
+        if (job != null) {
+            job.cancel();
+        }
+        executor.execute(() -> {
+            stopJob();
+            if (worldChange != null) {
+                worldChange.run();
+            }
+            boolean adapted = false;
+            if (target == null || target.width != viewport.width || target.height != viewport.height) {
+                iterations = new IterationBuffer(viewport.width, viewport.height);
+                target = new RenderTarget(viewport.width, viewport.height);
+                previewShown = false;
+            } else {
+                // Even a frame that is already outdated must be adapted, the
+                // next changes are relative to it.
+                adaptFrame.run();
+                adapted = true;
+            }
+            if (world.adaptMaxSteps(viewport)) {
+                // The pixels that are kept do not match the new number of
+                // steps; they are only shown until they are computed again.
+                iterations.clear();
+                previewShown = adapted && showsPixels;
+            }
+            Frame frame = new Frame(newGeneration, requestNanos, viewport);
+            if (adapted && showsPixels) {
+                frame.pixelsShown();
+            }
+            if (newGeneration == generation.get() && tileCache != null && TileCache.isCacheable(world)
+                    && tileCache.load(world, viewport, iterations, target) > 0) {
+                frame.pixelsShown();
+            }
+            repaint.run();
+            if (newGeneration == generation.get()) {
+                currentJob = renderer.render(world, viewport, iterations, target, previewShown, frame);
+                metrics.frameStarted(newGeneration, currentJob.getMetrics());
+            }
+        });
+        return newGeneration;
+    }
+
+    private void stopJob() {
+        TileRenderer.Job job = currentJob;
+        if (job != null) {
+            job.cancel();
+            try {
+                job.join();
+            } catch (RuntimeException e) {
+                // The next frame is computed anyway.
+                System.err.println("Frame failed: " + e);
+            }
+            currentJob = null;
+        }
+    }
+
+    /**
+     * Follows the job of one generation.
+     */
+    private class Frame implements TileRenderer.Listener {
+
+        private final long frameGeneration;
+        private final long requestNanos;
+        private final Viewport viewport;
+        private final AtomicBoolean shown;
+        private final IterationBuffer frameIterations;
+        private final RenderTarget frameTarget;
+
+        Frame(long frameGeneration, long requestNanos, Viewport viewport) {
+            this.frameGeneration = frameGeneration;
+            this.requestNanos = requestNanos;
+            this.viewport = viewport;
+            shown = new AtomicBoolean();
+            frameIterations = iterations;
+            frameTarget = target;
+        }
+
+        void pixelsShown() {
+            if (shown.compareAndSet(false, true)) {
+                firstPixelsLatency = System.nanoTime() - requestNanos;
+                metrics.firstPixelsShown(firstPixelsLatency);
+            }
+        }
+
+        @Override
+        public void tileDone(TileRenderer.Job job) {
+            pixelsShown();
+            repaint.run();
+        }
+
+        /**
+         * The histogram and the tiles of the frame are handled on the
+         * scheduler thread: it is the one that changes the colorizer, and the
+         * disk is not written from the threads of the renderer. A newer
+         * generation may already have moved the pixels of the frame.
+         *
+         * @param job
+         */
+        @Override
+        public void jobDone(TileRenderer.Job job) {
+            metrics.frameDone(frameGeneration, job.getMetrics());
+            executor.execute(() -> {
+                if (frameGeneration != generation.get()) {
+                    return;
+                }
+                // The histogram can only be computed once every pixel is known.
+                if (world.getColorizer().usesHistogramEqualization()) {
+                    world.colorize(frameIterations, frameTarget);
+                    repaint.run();
+                }
+                if (tileCache != null && TileCache.isCacheable(world)) {
+                    tileCache.store(world, viewport, frameIterations);
+                }
+            });
+        }
+    }
+}
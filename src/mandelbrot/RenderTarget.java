@@ -0,0 +1,115 @@
+package mandelbrot;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * An off-screen image whose pixels are written directly by the renderers.
+ * The pixels are packed RGB values stored line after line; the panel displays
+ * the whole image with a single drawImage.
+ *
+ * @author arthu
+ */
+class RenderTarget {
+
+    final int width;
+    final int height;
+    final int[] pixels;
+
+    private final BufferedImage image;
+
+    public RenderTarget(int width, int height) {
+        this.width = width;
+        this.height = height;
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    BufferedImage getImage() {
+        return image;
+    }
+
+    void setPixel(int col, int line, int rgb) {
+        if (col >= 0 && col < width && line >= 0 && line < height) {
+            pixels[line * width + col] = rgb;
+        }
+    }
+
+    /**
+     * Paint the pixels of one line, from colStart included to colEnd excluded.
+     *
+     * @param line
+     * @param colStart
+     * @param colEnd
+     * @param rgb
+     */
+    void fillSpan(int line, int colStart, int colEnd, int rgb) {
+        if (line < 0 || line >= height) {
+            return;
+        }
+        colStart = Math.max(colStart, 0);
+        colEnd = Math.min(colEnd, width);
+        if (colStart < colEnd) {
+            Arrays.fill(pixels, line * width + colStart, line * width + colEnd, rgb);
+        }
+    }
+
+    /**
+     * Paint a rectangle; the parts outside of the image are ignored.
+     *
+     * @param x
+     * @param y
+     * @param w
+     * @param h
+     * @param rgb
+     */
+    void fillRect(int x, int y, int w, int h, int rgb) {
+        int lineEnd = Math.min(y + h, height);
+        for (int line = Math.max(y, 0); line < lineEnd; line++) {
+            fillSpan(line, x, x + w, rgb);
+        }
+    }
+
+    void clear() {
+        Arrays.fill(pixels, 0);
+    }
+
+    /**
+     * Move the image by (dx, dy) pixels; the uncovered pixels become black.
+     *
+     * @param dx positive when the image moves to the right.
+     * @param dy positive when the image moves down.
+     */
+    void shift(int dx, int dy) {
+        IterationBuffer.shift(pixels, width, height, dx, dy);
+        fillRect(dx > 0 ? 0 : width + dx, 0, Math.abs(dx), height, 0);
+        fillRect(0, dy > 0 ? 0 : height + dy, width, Math.abs(dy), 0);
+    }
+
+    /**
+     * Fill this image with another one zoomed around the pixel
+     * (xCenter, yCenter), using the nearest pixel; the parts that come from
+     * outside of the source are black.
+     *
+     * @param source an image of the same size.
+     * @param xCenter
+     * @param yCenter
+     * @param factor greater than 1 to zoom in.
+     */
+    void zoomFrom(RenderTarget source, int xCenter, int yCenter, double factor) {
+        int[] cols = IterationBuffer.getSourceIndexes(width, xCenter, factor, false);
+        int[] lines = IterationBuffer.getSourceIndexes(height, yCenter, factor, false);
+        for (int line = 0; line < height; line++) {
+            int lineStart = line * width;
+            if (lines[line] < 0) {
+                Arrays.fill(pixels, lineStart, lineStart + width, 0);
+                continue;
+            }
+            int sourceLineStart = lines[line] * width;
+            for (int col = 0; col < width; col++) {
+                pixels[lineStart + col] = cols[col] < 0 ? 0 : source.pixels[sourceLineStart + cols[col]];
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package mandelbrot;
+
+import java.util.Arrays;
+
+/**
+ * The suite z(n+1) = sqrt(2)^z(n), from z(0) = 0. The point is only used to
+ * color the plane: the suite is the same everywhere, so it is computed once,
+ * when the kernel is created.
+ *
+ * @author arthu
+ */
+class Sqrt2TetrationKernel implements FractalKernel {
+
+    // The suite converges or diverges quickly.
+    static final int MAX_STEPS = 16;
+
+    // Limit of convergence; if the modulus goes higher, the suite diverges.
+    private static final double MAX = 1000;
+
+    private final int maxSteps;
+    // The number of steps of every point.
+    private final int nbSteps;
+
+    public Sqrt2TetrationKernel(int maxSteps) {
+        this.maxSteps = maxSteps;
+        double c = Math.sqrt(2);
+        double lnC = Math.log(c);
+        double xCurrent = 0;
+        double yCurrent = 0;
+        int step = 0;
+        while (step < maxSteps && xCurrent * xCurrent + yCurrent * yCurrent < MAX * MAX) {
+            double modulus = Math.pow(c, xCurrent);
+            double xNext = modulus * Math.cos(yCurrent * lnC);
+            double yNext = modulus * Math.sin(yCurrent * lnC);
+
+            xCurrent = xNext;
+            yCurrent = yNext;
+            step++;
+        }
+        nbSteps = step;
+    }
+
+    @Override
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    @Override
+    public FractalKernel withMaxSteps(int newMaxSteps) {
+        return new Sqrt2TetrationKernel(newMaxSteps);
+    }
+
+    @Override
+    public int iterate(double x, double y, float[] norms, int index) {
+        norms[index] = Float.NaN;
+        return nbSteps;
+    }
+
+    @Override
+    public void iterateRow(double[] xs, int xsOffset, double y, int length, int[] steps, float[] norms, int offset) {
+        Arrays.fill(steps, offset, offset + length, nbSteps);
+        Arrays.fill(norms, offset, offset + length, Float.NaN);
+    }
+}
@@ -0,0 +1,43 @@
+package mandelbrot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Writes an image into a file strip after strip, from the top line to the
+ * bottom one, so that the whole image never has to be in memory.
+ * After each strip the file can be resumed from the state of the writer.
+ *
+ * @author arthu
+ */
+interface StripWriter extends Closeable {
+
+    /**
+     * Append the next lines of the image; they are on the disk when this
+     * method returns.
+     *
+     * @param iterations the escape data of the strip.
+     * @param target the colors of the strip.
+     * @param nbLines the number of lines of the strip, the buffers may be
+     * larger.
+     * @throws IOException
+     */
+    void writeStrip(IterationBuffer iterations, RenderTarget target, int nbLines) throws IOException;
+
+    int getNbLinesWritten();
+
+    /**
+     * @return what a new writer needs to resume the file after the last
+     * strip.
+     * @throws IOException
+     */
+    Properties getState() throws IOException;
+
+    /**
+     * Complete the file, once all the lines are written.
+     *
+     * @throws IOException
+     */
+    void finish() throws IOException;
+}
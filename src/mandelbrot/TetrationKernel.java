@@ -0,0 +1,71 @@
+package mandelbrot;
+
+/**
+ * The power tower of the point: z(n+1) = c^z(n) from z(0) = 0, that is 1, c,
+ * c^c, c^c^c... The suite escapes once its modulus reaches MAX.
+ * As c^z = exp(z ln c), the logarithm of the point is computed once, and each
+ * step only needs one exponential, one sine and one cosine.
+ *
+ * @author arthu
+ */
+class TetrationKernel implements FractalKernel {
+
+    // The towers that stay bounded converge or cycle within a few dozen
+    // steps.
+    static final int MAX_STEPS = 100;
+
+    // Limit of convergence; if the modulus goes higher, the suite diverges.
+    private static final double MAX = 1000;
+
+    private final int maxSteps;
+
+    public TetrationKernel(int maxSteps) {
+        this.maxSteps = maxSteps;
+    }
+
+    @Override
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    @Override
+    public FractalKernel withMaxSteps(int newMaxSteps) {
+        return new TetrationKernel(newMaxSteps);
+    }
+
+    @Override
+    public int iterate(double x, double y, float[] norms, int index) {
+        return iterateTower(0.5 * Math.log(x * x + y * y), Math.atan2(y, x), norms, index);
+    }
+
+    @Override
+    public void iterateRow(double[] xs, int xsOffset, double y, int length, int[] steps, float[] norms, int offset) {
+        double ySquared = y * y;
+        for (int i = 0; i < length; i++) {
+            double x = xs[xsOffset + i];
+            steps[offset + i] = iterateTower(0.5 * Math.log(x * x + ySquared), Math.atan2(y, x), norms, offset + i);
+        }
+    }
+
+    /**
+     * @param lnModulus the real part of ln c.
+     * @param argument the imaginary part of ln c.
+     */
+    private int iterateTower(double lnModulus, double argument, float[] norms, int index) {
+        double maxNorm = MAX * MAX;
+        double xCurrent = 0;
+        double yCurrent = 0;
+        int step = 0;
+
+        while (step < maxSteps && xCurrent * xCurrent + yCurrent * yCurrent < maxNorm) {
+            // c^z = exp(z ln c)
+            double modulus = Math.exp(xCurrent * lnModulus - yCurrent * argument);
+            double angle = xCurrent * argument + yCurrent * lnModulus;
+            xCurrent = modulus * Math.cos(angle);
+            yCurrent = modulus * Math.sin(angle);
+            step++;
+        }
+        norms[index] = Float.NaN;
+        return step;
+    }
+}
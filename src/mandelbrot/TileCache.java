@@ -0,0 +1,420 @@
+package mandelbrot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Keeps the escape data of the tiles already computed, so that a view that is
+ * visited again is loaded instead of computed.
+ * The tiles are addressed by a TileKey and stored on disk, one compressed file
+ * per tile, unless the cache has no directory; the most recently used ones
+ * also stay in memory, up to a number of bytes. A viewport can only use the tiles when its zoom is the zoom of a
+ * level and its origin falls on a whole pixel of that level.
+ *
+ * @author arthu
+ */
+class TileCache {
+
+    private static final int TILE_MAGIC = 0x4d4e4454; // "MNDT"
+    private static final int TILE_AREA = TileKey.TILE_SIZE * TileKey.TILE_SIZE;
+    // Memory used by the escape data of a tile.
+    static final long TILE_BYTES = 8L * TILE_AREA;
+
+    private final File directory;
+    private final long maxMemoryBytes;
+    // In access order: the first tile is the least recently used.
+    private final LinkedHashMap<TileKey, IterationBuffer> memory;
+    private long memoryBytes;
+
+    private final AtomicLong nbMemoryHits;
+    private final AtomicLong nbDiskHits;
+    private final AtomicLong nbMisses;
+    private final AtomicLong nbStored;
+    private final AtomicLong nbEvicted;
+
+    /**
+     * @param directory where the tile files are kept; it is created if needed.
+     * When null, the tiles are only kept in memory.
+     * @param maxMemoryBytes the memory that the tiles may use.
+     */
+    public TileCache(File directory, long maxMemoryBytes) {
+        this.directory = directory;
+        this.maxMemoryBytes = maxMemoryBytes;
+        memory = new LinkedHashMap<>(16, 0.75f, true);
+        nbMemoryHits = new AtomicLong();
+        nbDiskHits = new AtomicLong();
+        nbMisses = new AtomicLong();
+        nbStored = new AtomicLong();
+        nbEvicted = new AtomicLong();
+    }
+
+    /**
+     * @return a cache in the directory given by the property mandelbrot.cache,
+     * by default .mandelbrot/tiles in the home directory, that keeps up to
+     * mandelbrot.cacheMemory megabytes of tiles in memory (256 by default).
+     */
+    static TileCache createDefault() {
+        String path = System.getProperty("mandelbrot.cache",
+                new File(System.getProperty("user.home"), ".mandelbrot/tiles").getPath());
+        long megabytes = Long.getLong("mandelbrot.cacheMemory", 256);
+        return new TileCache(new File(path), megabytes << 20);
+    }
+
+    /**
+     * @return the cache of the viewer: the tiles only go to disk when the
+     * property mandelbrot.cache gives a directory, since nothing bounds the
+     * size of the directory.
+     */
+    static TileCache createForViewer() {
+        String path = System.getProperty("mandelbrot.cache");
+        long megabytes = Long.getLong("mandelbrot.cacheMemory", 256);
+        return new TileCache(path == null ? null : new File(path), megabytes << 20);
+    }
+
+    /**
+     * @param world
+     * @return true when the escape data of the current drawing type may be
+     * cached.
+     */
+    static boolean isCacheable(World world) {
+        return isCacheable(world.getType());
+    }
+
+    /**
+     * @param type
+     * @return true when the escape data of this drawing type may be cached;
+     * the Julia and Multibrot sets and the formulas are not, their parameters
+     * are not part of the key, and the tetration of sqrt(2) is faster to
+     * compute than to load.
+     */
+    static boolean isCacheable(World.DrawingType type) {
+        switch (type) {
+        case MANDELBROT:
+        case BURNING_SHIP:
+        case TETRATION:
+        case HEART:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @param viewport
+     * @return the level whose pixels are exactly the pixels of the viewport,
+     * or -1 if there is none.
+     */
+    static int getLevel(Viewport viewport) {
+        if (viewport.zoom < TileKey.LEVEL_0_ZOOM) {
+            return -1;
+        }
+        int level = Math.getExponent(viewport.zoom / TileKey.LEVEL_0_ZOOM);
+        if (level > TileKey.MAX_LEVEL || TileKey.getZoom(level) != viewport.zoom
+                || !isInteger(viewport.getExactX0()) || !isInteger(viewport.getExactY0())) {
+            return -1;
+        }
+        return level;
+    }
+
+    private static boolean isInteger(BigDecimal value) {
+        return value.signum() == 0 || value.stripTrailingZeros().scale() <= 0;
+    }
+
+    /**
+     * @param world
+     * @param level
+     * @param tileX
+     * @param tileY
+     * @return the key of a tile for the current settings of the world.
+     */
+    static TileKey getKey(World world, int level, long tileX, long tileY) {
+        return new TileKey(world.getType(), level, tileX, tileY, world.getKernelMaxSteps(), world.usesAutoMaxSteps(),
+                world.getBailoutRadius());
+    }
+
+    /**
+     * @param key
+     * @return the escape data of the tile, from memory or from disk, or null
+     * if it was never stored.
+     */
+    IterationBuffer get(TileKey key) {
+        synchronized (this) {
+            IterationBuffer tile = memory.get(key);
+            if (tile != null) {
+                nbMemoryHits.incrementAndGet();
+                return tile;
+            }
+        }
+        IterationBuffer tile = read(key);
+        if (tile == null) {
+            nbMisses.incrementAndGet();
+            return null;
+        }
+        nbDiskHits.incrementAndGet();
+        keep(key, tile);
+        return tile;
+    }
+
+    /**
+     * Store the escape data of a tile, in memory and, when the cache has a
+     * directory, on disk.
+     *
+     * @param key
+     * @param tile a buffer of TILE_SIZE * TILE_SIZE pixels, all computed; it
+     * must not be modified afterwards.
+     */
+    void put(TileKey key, IterationBuffer tile) {
+        keep(key, tile);
+        if (directory == null) {
+            return;
+        }
+        try {
+            write(key, tile);
+            nbStored.incrementAndGet();
+        } catch (IOException e) {
+            System.err.println("Could not store the tile " + key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param key
+     * @return true when the tile is in memory or on disk, without loading it.
+     */
+    boolean contains(TileKey key) {
+        synchronized (this) {
+            if (memory.containsKey(key)) {
+                return true;
+            }
+        }
+        return directory != null && getFile(key).exists();
+    }
+
+    private synchronized void keep(TileKey key, IterationBuffer tile) {
+        if (memory.put(key, tile) == null) {
+            memoryBytes += TILE_BYTES;
+        }
+        Iterator<Map.Entry<TileKey, IterationBuffer>> entries = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && entries.hasNext()) {
+            entries.next();
+            entries.remove();
+            memoryBytes -= TILE_BYTES;
+            nbEvicted.incrementAndGet();
+        }
+    }
+
+    /**
+     * Copy the tiles that are cached into a frame, and color them.
+     *
+     * @param world
+     * @param viewport
+     * @param buffer the escape data of the frame.
+     * @param target the image of the frame.
+     * @return the number of pixels loaded.
+     */
+    int load(World world, Viewport viewport, IterationBuffer buffer, RenderTarget target) {
+        int level = getLevel(viewport);
+        if (level < 0) {
+            return 0;
+        }
+        int nbLoaded = 0;
+        long[] origin = getGlobalOrigin(viewport, level);
+        for (long tileY = Math.floorDiv(origin[1], TileKey.TILE_SIZE);
+                tileY * TileKey.TILE_SIZE < origin[1] + viewport.height; tileY++) {
+            for (long tileX = Math.floorDiv(origin[0], TileKey.TILE_SIZE);
+                    tileX * TileKey.TILE_SIZE < origin[0] + viewport.width; tileX++) {
+                IterationBuffer tile = get(getKey(world, level, tileX, tileY));
+                if (tile == null) {
+                    continue;
+                }
+                // Position of the tile in the frame.
+                int left = (int) (tileX * TileKey.TILE_SIZE - origin[0]);
+                int top = (int) (tileY * TileKey.TILE_SIZE - origin[1]);
+                int colStart = Math.max(left, 0);
+                int colEnd = Math.min(left + TileKey.TILE_SIZE, viewport.width);
+                int lineEnd = Math.min(top + TileKey.TILE_SIZE, viewport.height);
+                for (int line = Math.max(top, 0); line < lineEnd; line++) {
+                    int src = (line - top) * TileKey.TILE_SIZE + colStart - left;
+                    int dest = line * viewport.width + colStart;
+                    System.arraycopy(tile.steps, src, buffer.steps, dest, colEnd - colStart);
+                    System.arraycopy(tile.norms, src, buffer.norms, dest, colEnd - colStart);
+                    world.colorize(buffer, target, dest, dest + colEnd - colStart);
+                    nbLoaded += colEnd - colStart;
+                }
+            }
+        }
+        return nbLoaded;
+    }
+
+    /**
+     * Store the tiles that a frame covers entirely and that are not cached
+     * yet.
+     *
+     * @param world
+     * @param viewport
+     * @param buffer the escape data of the frame.
+     * @return the number of tiles stored.
+     */
+    int store(World world, Viewport viewport, IterationBuffer buffer) {
+        int level = getLevel(viewport);
+        if (level < 0) {
+            return 0;
+        }
+        int nbTiles = 0;
+        long[] origin = getGlobalOrigin(viewport, level);
+        for (long tileY = Math.floorDiv(origin[1] + TileKey.TILE_SIZE - 1, TileKey.TILE_SIZE);
+                (tileY + 1) * TileKey.TILE_SIZE <= origin[1] + viewport.height; tileY++) {
+            for (long tileX = Math.floorDiv(origin[0] + TileKey.TILE_SIZE - 1, TileKey.TILE_SIZE);
+                    (tileX + 1) * TileKey.TILE_SIZE <= origin[0] + viewport.width; tileX++) {
+                TileKey key = getKey(world, level, tileX, tileY);
+                if (contains(key)) {
+                    continue;
+                }
+                int left = (int) (tileX * TileKey.TILE_SIZE - origin[0]);
+                int top = (int) (tileY * TileKey.TILE_SIZE - origin[1]);
+                IterationBuffer tile = new IterationBuffer(TileKey.TILE_SIZE, TileKey.TILE_SIZE);
+                boolean complete = true;
+                for (int line = 0; line < TileKey.TILE_SIZE && complete; line++) {
+                    int src = (top + line) * viewport.width + left;
+                    System.arraycopy(buffer.steps, src, tile.steps, line * TileKey.TILE_SIZE, TileKey.TILE_SIZE);
+                    System.arraycopy(buffer.norms, src, tile.norms, line * TileKey.TILE_SIZE, TileKey.TILE_SIZE);
+                    for (int col = 0; col < TileKey.TILE_SIZE; col++) {
+                        if (tile.steps[line * TileKey.TILE_SIZE + col] == IterationBuffer.NOT_COMPUTED) {
+                            complete = false;
+                            break;
+                        }
+                    }
+                }
+                if (complete) {
+                    put(key, tile);
+                    nbTiles++;
+                }
+            }
+        }
+        return nbTiles;
+    }
+
+    /**
+     * @param viewport
+     * @param level the level of the viewport.
+     * @return the coordinates of the top-left pixel of the viewport among all
+     * the pixels of the level, counted from the top-left corner of tile (0, 0).
+     */
+    private static long[] getGlobalOrigin(Viewport viewport, int level) {
+        // The column col is at x = (col - x0) / zoom, and x = -2 is the
+        // global column 0; the same goes for the lines, from y = 2 downward.
+        long twiceZoom = (long) (2 * TileKey.getZoom(level));
+        long globalX = twiceZoom - viewport.getExactX0().longValueExact();
+        long globalY = twiceZoom - viewport.height + viewport.getExactY0().longValueExact();
+        return new long[]{globalX, globalY};
+    }
+
+    private File getFile(TileKey key) {
+        return new File(directory, key.getPath());
+    }
+
+    private IterationBuffer read(TileKey key) {
+        if (directory == null) {
+            return null;
+        }
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(Files.newInputStream(file.toPath())), 1 << 16))) {
+            if (input.readInt() != TILE_MAGIC || input.readInt() != TileKey.TILE_SIZE) {
+                throw new IOException("not a tile file");
+            }
+            IterationBuffer tile = new IterationBuffer(TileKey.TILE_SIZE, TileKey.TILE_SIZE);
+            for (int i = 0; i < TILE_AREA; i++) {
+                tile.steps[i] = input.readInt();
+            }
+            for (int i = 0; i < TILE_AREA; i++) {
+                tile.norms[i] = input.readFloat();
+            }
+            return tile;
+        } catch (IOException e) {
+            System.err.println("Ignoring the tile " + key + ": " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    private void write(TileKey key, IterationBuffer tile) throws IOException {
+        Path path = getFile(key).toPath();
+        Files.createDirectories(path.getParent());
+        // Written aside then moved, so that a tile file is always complete.
+        Path temporary = Files.createTempFile(path.getParent(), "tile", ".tmp");
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(Files.newOutputStream(temporary), deflater), 1 << 16))) {
+            output.writeInt(TILE_MAGIC);
+            output.writeInt(TileKey.TILE_SIZE);
+            for (int i = 0; i < TILE_AREA; i++) {
+                output.writeInt(tile.steps[i]);
+            }
+            for (int i = 0; i < TILE_AREA; i++) {
+                output.writeFloat(tile.norms[i]);
+            }
+        } finally {
+            deflater.end();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    long getNbMemoryHits() {
+        return nbMemoryHits.get();
+    }
+
+    long getNbDiskHits() {
+        return nbDiskHits.get();
+    }
+
+    long getNbMisses() {
+        return nbMisses.get();
+    }
+
+    long getNbStored() {
+        return nbStored.get();
+    }
+
+    long getNbEvicted() {
+        return nbEvicted.get();
+    }
+
+    synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * @return the share of the requests found in memory or on disk.
+     */
+    double getHitRatio() {
+        long nbHits = getNbMemoryHits() + getNbDiskHits();
+        long nbRequests = nbHits + getNbMisses();
+        return nbRequests == 0 ? 0 : (double) nbHits / nbRequests;
+    }
+
+    @Override
+    public String toString() {
+        return "Tile cache: " + getNbMemoryHits() + " memory hits, " + getNbDiskHits() + " disk hits, "
+                + getNbMisses() + " misses (" + Math.round(100 * getHitRatio()) + "% hits), "
+                + getNbStored() + " stored, " + getNbEvicted() + " evicted, "
+                + (getMemoryBytes() >> 20) + " MB in memory";
+    }
+}
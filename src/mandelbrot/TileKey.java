@@ -0,0 +1,107 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+
+/**
+ * The address of a square tile of escape data in a quadtree.
+ * At level 0 a single tile of TILE_SIZE pixels covers the square from -2 to 2
+ * on both axes; each level doubles the zoom, so a tile has four children at
+ * the next level. Tiles are counted from the top-left corner (-2, 2), columns
+ * to the right and lines downward, like the tiles of a map.
+ * The key also holds the parameters that change the escape data.
+ *
+ * @author arthu
+ */
+class TileKey {
+
+    // Side of a tile, in pixels.
+    static final int TILE_SIZE = 256;
+    // Zoom of level 0, in pixels per unit.
+    static final double LEVEL_0_ZOOM = TILE_SIZE / 4.0;
+    // Beyond this level the global pixel coordinates no longer fit in a long.
+    static final int MAX_LEVEL = 48;
+
+    final World.DrawingType type;
+    final int level;
+    final long tileX;
+    final long tileY;
+    final int maxSteps;
+    // True when the tiles of the renderer chose their own number of steps.
+    final boolean autoMaxSteps;
+    final double bailoutRadius;
+
+    public TileKey(World.DrawingType type, int level, long tileX, long tileY, int maxSteps, boolean autoMaxSteps,
+            double bailoutRadius) {
+        this.type = type;
+        this.level = level;
+        this.tileX = tileX;
+        this.tileY = tileY;
+        this.maxSteps = maxSteps;
+        this.autoMaxSteps = autoMaxSteps;
+        this.bailoutRadius = bailoutRadius;
+    }
+
+    /**
+     * @param level
+     * @return the zoom of the level, in pixels per unit.
+     */
+    static double getZoom(int level) {
+        return Math.scalb(LEVEL_0_ZOOM, level);
+    }
+
+    /**
+     * @return the viewport that shows exactly this tile.
+     */
+    Viewport getViewport() {
+        long twiceZoom = (long) (2 * getZoom(level));
+        BigDecimal x0 = BigDecimal.valueOf(twiceZoom).subtract(BigDecimal.valueOf(tileX).multiply(BigDecimal.valueOf(TILE_SIZE)));
+        BigDecimal y0 = BigDecimal.valueOf(tileY + 1).multiply(BigDecimal.valueOf(TILE_SIZE)).subtract(BigDecimal.valueOf(twiceZoom));
+        return new Viewport(TILE_SIZE, TILE_SIZE, x0, y0, getZoom(level));
+    }
+
+    /**
+     * @return the path of the tile file, relative to the directory of the
+     * cache.
+     */
+    String getPath() {
+        return getDirectory(type) + "/" + maxSteps + (autoMaxSteps ? "-auto" : "") + "-" + bailoutRadius + "/" + level + "/" + tileX + "/" + tileY + ".tile";
+    }
+
+    /**
+     * @param type
+     * @return the directory of the tiles of a type. It changes when the
+     * kernel of the type computes other escape data, so that the older tiles
+     * are no longer read.
+     */
+    private static String getDirectory(World.DrawingType type) {
+        switch (type) {
+        case TETRATION:
+            // Power tower of the point, instead of the tetration of sqrt(2).
+            return type + "-2";
+        default:
+            return type.toString();
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof TileKey)) {
+            return false;
+        }
+        TileKey key = (TileKey) other;
+        return type == key.type && level == key.level && tileX == key.tileX && tileY == key.tileY
+                && maxSteps == key.maxSteps && autoMaxSteps == key.autoMaxSteps && bailoutRadius == key.bailoutRadius;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, level, tileX, tileY, maxSteps, autoMaxSteps, bailoutRadius);
+    }
+
+    @Override
+    public String toString() {
+        return type + "/" + level + "/" + tileX + "/" + tileY + " (" + maxSteps + (autoMaxSteps ? " automatic" : "")
+                + " steps, bailout " + bailoutRadius + ")";
+    }
+}
@@ -0,0 +1,167 @@
+package mandelbrot;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Load the tile server with many clients and report the latency of the tiles.
+ * Unless the URL of a running server is given, a server is started in this
+ * process with an empty cache. Each client asks for tiles of one level, the
+ * tiles near the center more often than the others, as a map viewer would:
+ * the first requests are rendered, simultaneous ones are coalesced and the
+ * last ones come from the cache.
+ *
+ * @author arthu
+ */
+class TileLoadTest {
+
+    /**
+     * Run the load test; exits with a non-zero status when the server cannot
+     * be reached.
+     *
+     * @param args
+     */
+    static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        try {
+            run(args);
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Load test failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    private static void run(String[] args) throws IOException, InterruptedException {
+        String url = null;
+        String type = "mandelbrot";
+        int nbClients = 16;
+        int nbRequests = 2000;
+        int level = 4;
+        int maxPending = 0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+            case "--url":
+                url = args[i + 1];
+                break;
+            case "--type":
+                type = args[i + 1].toLowerCase();
+                break;
+            case "--clients":
+                nbClients = Integer.parseInt(args[i + 1]);
+                break;
+            case "--requests":
+                nbRequests = Integer.parseInt(args[i + 1]);
+                break;
+            case "--level":
+                level = Integer.parseInt(args[i + 1]);
+                break;
+            case "--max-pending":
+                maxPending = Integer.parseInt(args[i + 1]);
+                break;
+            default:
+                System.err.println("Usage: loadtest [--url <server>] [--type <type>] [--clients <n>] [--requests <n>] [--level <z>] [--max-pending <n>]");
+                System.exit(2);
+            }
+        }
+
+        TileServer server = null;
+        Path directory = null;
+        if (url == null) {
+            int nbThreads = Runtime.getRuntime().availableProcessors();
+            directory = Files.createTempDirectory("tiles");
+            server = new TileServer(new TileCache(directory.toFile(), 256L << 20), nbThreads,
+                    maxPending > 0 ? maxPending : 4 * nbThreads, 4000, 0, false);
+            url = "http://localhost:" + server.start(0);
+        }
+
+        HttpClient client = HttpClient.newHttpClient();
+        long[] latencies = new long[nbRequests];
+        int[] statuses = new int[nbRequests];
+        AtomicInteger next = new AtomicInteger();
+        String base = url + "/" + type + "/" + level + "/";
+        int nbTiles = 1 << level;
+
+        Thread[] clients = new Thread[nbClients];
+        long start = System.nanoTime();
+        for (int c = 0; c < nbClients; c++) {
+            Random random = new Random(c);
+            clients[c] = new Thread(() -> {
+                for (int i = next.getAndIncrement(); i < latencies.length; i = next.getAndIncrement()) {
+                    long tileX = pickTile(random, nbTiles);
+                    long tileY = pickTile(random, nbTiles);
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(base + tileX + "/" + tileY + ".png")).build();
+                    long requestStart = System.nanoTime();
+                    try {
+                        statuses[i] = client.send(request, HttpResponse.BodyHandlers.ofByteArray()).statusCode();
+                    } catch (IOException e) {
+                        statuses[i] = -1;
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    latencies[i] = System.nanoTime() - requestStart;
+                }
+            });
+            clients[c].start();
+        }
+        for (Thread thread : clients) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int nbOk = 0;
+        int nbRejected = 0;
+        for (int status : statuses) {
+            if (status == 200) {
+                nbOk++;
+            } else if (status == 503) {
+                nbRejected++;
+            }
+        }
+        System.out.printf("%d requests from %d clients in %.2f s, %.0f requests/s: %d ok, %d rejected, %d failed.%n",
+                nbRequests, nbClients, seconds, nbRequests / seconds, nbOk, nbRejected, nbRequests - nbOk - nbRejected);
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf("Latency: p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms.%n",
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), sorted[nbRequests - 1] / 1e6);
+
+        HttpRequest metrics = HttpRequest.newBuilder(URI.create(url + "/metrics")).build();
+        System.out.print(client.send(metrics, HttpResponse.BodyHandlers.ofString()).body());
+        if (server != null) {
+            server.stop();
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * @param random
+     * @param nbTiles
+     * @return a tile index, more often near the middle of the level.
+     */
+    private static long pickTile(Random random, int nbTiles) {
+        double position = 0.5 + random.nextGaussian() / 6;
+        return Math.max(0, Math.min(nbTiles - 1, (long) (position * nbTiles)));
+    }
+
+    /**
+     * @param sorted latencies in nanoseconds, in increasing order.
+     * @param percent
+     * @return the latency below which this percentage of the requests were
+     * served, in milliseconds.
+     */
+    private static double percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,851 @@
+package mandelbrot;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Render the world on several cores.
+ * The viewport is split into square tiles that are computed by a work-stealing
+ * fork-join pool. Each tile writes the escape data of its pixels into the
+ * iteration buffer shared by the whole frame, then colors them directly into
+ * the render target.
+ * Only the pixels that are not computed yet in the buffer are rendered, so a
+ * buffer that was shifted or partially computed is completed.
+ * Each job counts its work in a FrameMetrics.
+ *
+ * @author arthu
+ */
+class TileRenderer {
+
+    // Side of the tiles, in pixels. Regions larger than a tile are split in two.
+    private static final int TILE_SIZE = 64;
+
+    // Regions this small are computed fully by the Mariani-Silver strategy.
+    private static final int MIN_SUBDIVISION = 4;
+
+    // With automatic steps, a tile iterates up to this many times the highest
+    // escape it already knows, and not less than MIN_TILE_STEPS.
+    private static final int ESCAPE_MARGIN = 4;
+    private static final int MIN_TILE_STEPS = 256;
+
+    /**
+     * How the pixels of a tile are computed.
+     */
+    enum Strategy {
+        // Every pixel is iterated.
+        FULL,
+        // Mariani-Silver: compute the border of a rectangle; if all its pixels
+        // have the same number of steps, fill the inside, else split it.
+        MARIANI_SILVER,
+        // The whole frame is computed with a coarse resolution first, then
+        // refined; each level only computes the samples that are new to it.
+        PROGRESSIVE,
+        // Like the progressive one, but each region of the screen is refined
+        // on its own, the regions with the most visible error first: the
+        // details sharpen before the flat areas, which are finished by
+        // Mariani-Silver.
+        PRIORITY
+    }
+
+    // Changed by the thread that submits the jobs, read by the overlay.
+    private volatile ForkJoinPool pool;
+    private volatile int nbThreads;
+    private volatile Strategy strategy;
+
+    public TileRenderer() {
+        this(Integer.getInteger("mandelbrot.threads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    public TileRenderer(int newNbThreads) {
+        setNbThreads(newNbThreads);
+        strategy = Strategy.MARIANI_SILVER;
+    }
+
+    Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Use a new strategy; it applies to the next jobs.
+     *
+     * @param newStrategy
+     */
+    void setStrategy(Strategy newStrategy) {
+        strategy = newStrategy;
+    }
+
+    int getNbThreads() {
+        return nbThreads;
+    }
+
+    /**
+     * Change the number of worker threads.
+     * Jobs that are already running finish on the previous pool, which is
+     * only shut down once the new one is in place.
+     *
+     * @param newNbThreads
+     */
+    void setNbThreads(int newNbThreads) {
+        if (newNbThreads < 1 || newNbThreads == nbThreads) {
+            return;
+        }
+        ForkJoinPool previous = pool;
+        pool = new ForkJoinPool(newNbThreads);
+        nbThreads = newNbThreads;
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Stop the worker threads once the running jobs are finished; no other
+     * job may be rendered.
+     */
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Start rendering the viewport into the buffer and the target, without
+     * waiting for the result.
+     *
+     * @param world
+     * @param viewport
+     * @param buffer receives the escape data, same size as the viewport.
+     * @param target receives the colors, same size as the viewport.
+     * @return the job, that may be cancelled or waited for.
+     */
+    Job render(World world, Viewport viewport, IterationBuffer buffer, RenderTarget target) {
+        return render(world, viewport, buffer, target, false, null);
+    }
+
+    /**
+     * Start rendering the viewport, without waiting for the result.
+     *
+     * @param world
+     * @param viewport
+     * @param buffer receives the escape data, same size as the viewport.
+     * @param target receives the colors, same size as the viewport.
+     * @param overPreview true when the target already shows an approximation of
+     * the pixels that are not computed; the progressive strategy then keeps it
+     * instead of painting its coarse squares.
+     * @param listener is told about the progress of the job, may be null.
+     * @return the job, that may be cancelled or waited for.
+     */
+    Job render(World world, Viewport viewport, IterationBuffer buffer, RenderTarget target, boolean overPreview,
+            Listener listener) {
+        Job job = new Job(world, viewport, buffer, target, strategy, nbThreads);
+        job.overPreview = overPreview;
+        job.listener = listener;
+        job.task = pool.submit(new FrameTask(job));
+        return job;
+    }
+
+    /**
+     * Receives the progress of a job; it is called from the threads of the
+     * pool.
+     */
+    interface Listener {
+
+        /**
+         * Some pixels of the frame have been computed and colored.
+         *
+         * @param job
+         */
+        void tileDone(Job job);
+
+        /**
+         * All the pixels of the frame are computed; not called when the job
+         * is cancelled.
+         *
+         * @param job
+         */
+        void jobDone(Job job);
+    }
+
+    /**
+     * One rendering of a frame.
+     */
+    static class Job {
+
+        private final World world;
+        private final Viewport viewport;
+        private final IterationBuffer buffer;
+        private final RenderTarget target;
+        private final Strategy strategy;
+        // Chosen when the job starts, it may need some computation.
+        private FractalKernel kernel;
+        private int maxSteps;
+        private boolean uniformFill;
+        // With automatic steps, the tiles may use kernels with fewer steps,
+        // shared here by number of steps.
+        private boolean adaptiveSteps;
+        private final ConcurrentHashMap<Integer, FractalKernel> kernelsByMaxSteps = new ConcurrentHashMap<>();
+        // With the progressive strategy: distance between two samples of the
+        // level being computed.
+        private int levelStep;
+        private boolean overPreview;
+        private Listener listener;
+
+        private volatile boolean cancelled;
+        private ForkJoinTask<?> task;
+        // Number of pixels computed by the tiles that are finished.
+        private final LongAdder nbPixelsDone = new LongAdder();
+        private final FrameMetrics metrics;
+
+        private Job(World world, Viewport viewport, IterationBuffer buffer, RenderTarget target, Strategy strategy,
+                int nbThreads) {
+            this.world = world;
+            this.viewport = viewport;
+            this.buffer = buffer;
+            this.target = target;
+            this.strategy = strategy;
+            metrics = new FrameMetrics(viewport.getNbPixels(), nbThreads);
+        }
+
+        /**
+         * Stop computing; tiles that are being computed stop at the end of
+         * their current line.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        long getNbPixelsDone() {
+            return nbPixelsDone.sum();
+        }
+
+        FrameMetrics getMetrics() {
+            return metrics;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        boolean isDone() {
+            return task.isDone();
+        }
+
+        /**
+         * Wait until every tile is either finished or cancelled.
+         */
+        void join() {
+            task.join();
+        }
+    }
+
+    /**
+     * The whole frame: prepare the kernel, then compute the tiles.
+     */
+    private static class FrameTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Job job;
+
+        FrameTask(Job job) {
+            this.job = job;
+        }
+
+        @Override
+        protected void compute() {
+            job.metrics.start();
+            job.kernel = job.world.createKernel(job.viewport);
+            job.maxSteps = job.kernel.getMaxSteps();
+            job.adaptiveSteps = job.world.usesAutoMaxSteps();
+            job.uniformFill = (job.strategy == Strategy.MARIANI_SILVER || job.strategy == Strategy.PRIORITY)
+                    && job.world.allowsUniformFill();
+            if (job.strategy == Strategy.PROGRESSIVE) {
+                // The levels form a pyramid: the samples of a level are the
+                // pixels whose coordinates are multiples of its step, so a level
+                // reuses all the samples of the coarser ones.
+                int firstLevelStep = Integer.highestOneBit(Math.max(1, job.viewport.height / 20));
+                for (int step = firstLevelStep; step >= 1 && !job.isCancelled(); step /= 2) {
+                    job.levelStep = step;
+                    new TileTask(job, 0, 0, job.viewport.width, job.viewport.height).compute();
+                }
+            } else if (job.strategy == Strategy.PRIORITY) {
+                renderByPriority();
+            } else {
+                new TileTask(job, 0, 0, job.viewport.width, job.viewport.height).compute();
+            }
+            job.metrics.end();
+            if (job.listener != null && !job.isCancelled()) {
+                job.listener.jobDone(job);
+            }
+        }
+
+        /**
+         * Start with one region per tile, at the coarsest level, and let one
+         * worker per thread refine the regions in the order of the queue.
+         */
+        private void renderByPriority() {
+            int firstLevelStep = Math.min(TILE_SIZE, Integer.highestOneBit(Math.max(1, job.viewport.height / 20)));
+            RegionQueue queue = new RegionQueue();
+            for (int y = 0; y < job.viewport.height; y += TILE_SIZE) {
+                for (int x = 0; x < job.viewport.width; x += TILE_SIZE) {
+                    TileTask missing = new TileTask(job, x, y, Math.min(TILE_SIZE, job.viewport.width - x),
+                            Math.min(TILE_SIZE, job.viewport.height - y)).getMissingPixels();
+                    if (missing != null) {
+                        queue.add(new PaintingRegion(missing.xStart, missing.yStart, missing.width, missing.height,
+                                firstLevelStep, Double.POSITIVE_INFINITY));
+                    }
+                }
+            }
+            RegionWorker[] workers = new RegionWorker[job.metrics.getNbThreads()];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new RegionWorker(job, queue);
+            }
+            invokeAll(workers);
+        }
+    }
+
+    /**
+     * The regions waiting to be refined, the one with the highest priority
+     * first. A worker that finds it empty waits until another one queues the
+     * children of its region, or until no region is left.
+     */
+    private static class RegionQueue {
+
+        private final PriorityQueue<PaintingRegion> regions = new PriorityQueue<>();
+        // Regions that are queued or being refined.
+        private int nbPending;
+
+        synchronized void add(PaintingRegion region) {
+            regions.add(region);
+            nbPending++;
+            notifyAll();
+        }
+
+        /**
+         * @param job
+         * @return the region to refine, or null when all the regions are
+         * refined or the job is cancelled.
+         */
+        synchronized PaintingRegion take(Job job) {
+            while (regions.isEmpty()) {
+                if (nbPending == 0 || job.isCancelled()) {
+                    return null;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return regions.poll();
+        }
+
+        /**
+         * A region taken from the queue is refined, its children are queued.
+         */
+        synchronized void done() {
+            nbPending--;
+            notifyAll();
+        }
+
+        synchronized int size() {
+            return regions.size();
+        }
+    }
+
+    /**
+     * Takes the region with the highest priority, computes its samples and
+     * queues the finer regions that refine it, until no region is left.
+     */
+    private static class RegionWorker extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Job job;
+        private final RegionQueue queue;
+
+        RegionWorker(Job job, RegionQueue queue) {
+            this.job = job;
+            this.queue = queue;
+        }
+
+        @Override
+        protected void compute() {
+            PaintingRegion region;
+            while (!job.isCancelled() && (region = queue.take(job)) != null) {
+                try {
+                    refine(region);
+                } finally {
+                    queue.done();
+                }
+            }
+        }
+
+        private void refine(PaintingRegion region) {
+            long tileStart = System.nanoTime();
+            TileTask tile = new TileTask(job, region.x, region.y, region.width, region.height);
+            // A flat region is finished at once by Mariani-Silver, that
+            // fills it if its border is uniform.
+            boolean flat = job.uniformFill && region.error == 0;
+            boolean last = flat || region.step == 1;
+            if (flat) {
+                tile.paintTileBySubdivision();
+            } else {
+                tile.paintTileLevel(region.step);
+            }
+            if (last) {
+                job.nbPixelsDone.add((long) region.width * region.height);
+            }
+            job.metrics.tileDone(tile.nbSteps, tile.nbComputed, tile.nbFilled, tile.kernelNanos, tile.coloringNanos,
+                    System.nanoTime() - tileStart, queue.size());
+            if (job.listener != null && !job.isCancelled()) {
+                job.listener.tileDone(job);
+            }
+            if (!last && !job.isCancelled()) {
+                for (PaintingRegion child : region.split(job.buffer.steps, job.viewport.width, job.viewport.height)) {
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * A rectangular region of the screen. It splits itself until it is no
+     * larger than one tile.
+     */
+    private static class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Job job;
+        private final int xStart, yStart, width, height;
+        private FractalKernel kernel;
+
+        // Counters of the tile, added to the metrics of the job at the end.
+        private long nbSteps;
+        private long nbComputed;
+        private long nbFilled;
+        private long kernelNanos;
+        private long coloringNanos;
+
+        TileTask(Job job, int xStart, int yStart, int width, int height) {
+            this.job = job;
+            this.xStart = xStart;
+            this.yStart = yStart;
+            this.width = width;
+            this.height = height;
+            kernel = job.kernel;
+        }
+
+        @Override
+        protected void compute() {
+            if (job.isCancelled()) {
+                return;
+            }
+            if (width > TILE_SIZE || height > TILE_SIZE) {
+                // Split along the longest side.
+                if (width >= height) {
+                    int half = width / 2;
+                    invokeAll(new TileTask(job, xStart, yStart, half, height),
+                            new TileTask(job, xStart + half, yStart, width - half, height));
+                } else {
+                    int half = height / 2;
+                    invokeAll(new TileTask(job, xStart, yStart, width, half),
+                            new TileTask(job, xStart, yStart + half, width, height - half));
+                }
+            } else {
+                long tileStart = System.nanoTime();
+                TileTask missing = getMissingPixels();
+                if (missing != null) {
+                    missing.paint();
+                    job.nbPixelsDone.add((long) missing.width * missing.height);
+                    job.metrics.tileDone(missing.nbSteps, missing.nbComputed, missing.nbFilled, missing.kernelNanos,
+                            missing.coloringNanos, System.nanoTime() - tileStart,
+                            (int) Math.min(Integer.MAX_VALUE, getPool().getQueuedTaskCount()));
+                    if (job.listener != null && !job.isCancelled()) {
+                        job.listener.tileDone(job);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the smallest tile that contains all the pixels of this one
+         * that are not computed yet, or null if they are all known.
+         */
+        private TileTask getMissingPixels() {
+            int[] steps = job.buffer.steps;
+            int lineWidth = job.viewport.width;
+            int colMin = xStart + width;
+            int colMax = -1;
+            int lineMin = yStart + height;
+            int lineMax = -1;
+            for (int line = yStart; line < yStart + height; line++) {
+                int lineStart = line * lineWidth;
+                for (int col = xStart; col < xStart + width; col++) {
+                    if (steps[lineStart + col] == IterationBuffer.NOT_COMPUTED) {
+                        colMin = Math.min(colMin, col);
+                        colMax = Math.max(colMax, col);
+                        lineMin = Math.min(lineMin, line);
+                        lineMax = line;
+                    }
+                }
+            }
+            if (colMax < 0) {
+                return null;
+            }
+            if (colMin == xStart && lineMin == yStart && colMax == xStart + width - 1 && lineMax == yStart + height - 1) {
+                return this;
+            }
+            return new TileTask(job, colMin, lineMin, colMax - colMin + 1, lineMax - lineMin + 1);
+        }
+
+        private void paint() {
+            if (job.levelStep > 0) {
+                paintTileLevel(job.levelStep);
+            } else if (job.uniformFill) {
+                paintTileBySubdivision();
+            } else {
+                paintTile();
+            }
+        }
+
+        private void paintTile() {
+            chooseKernel();
+            // All the lines of the tile share the same real parts.
+            double[] xs = getXs();
+            for (int line = yStart; line < yStart + height; line++) {
+                if (job.isCancelled()) {
+                    return;
+                }
+                int lineStart = line * job.viewport.width + xStart;
+                long kernelStart = System.nanoTime();
+                iterateLine(xs, 0, line, xStart, width);
+                long coloringStart = System.nanoTime();
+                kernelNanos += coloringStart - kernelStart;
+                job.world.colorize(job.buffer, job.target, lineStart, lineStart + width);
+                coloringNanos += System.nanoTime() - coloringStart;
+            }
+        }
+
+        /**
+         * Compute the samples of the tile that are new at a level of the
+         * pyramid, and paint each of them as a square the size of the step;
+         * only the pixels that are still unknown are covered by the squares.
+         *
+         * @param step the distance between the samples of the level.
+         */
+        private void paintTileLevel(int step) {
+            chooseKernel();
+            int lineWidth = job.viewport.width;
+
+            // Samples are at multiples of the step, in absolute coordinates.
+            int firstCol = (xStart + step - 1) / step * step;
+            int firstLine = (yStart + step - 1) / step * step;
+
+            double[] xs = new double[width];
+            int[] sampleCols = new int[width];
+            int[] sampleSteps = new int[width];
+            float[] sampleNorms = new float[width];
+
+            for (int line = firstLine; line < yStart + height; line += step) {
+                if (job.isCancelled()) {
+                    return;
+                }
+                // The samples of the coarser levels are already in the buffer,
+                // as well as the pixels kept from the previous frame.
+                int nbSamples = 0;
+                for (int col = firstCol; col < xStart + width; col += step) {
+                    if (job.buffer.steps[line * lineWidth + col] == IterationBuffer.NOT_COMPUTED) {
+                        sampleCols[nbSamples] = col;
+                        xs[nbSamples] = getKernelX(col);
+                        nbSamples++;
+                    }
+                }
+                long kernelStart = System.nanoTime();
+                kernel.iterateRow(xs, 0, getKernelY(line), nbSamples, sampleSteps, sampleNorms, 0);
+                finishPixels(sampleSteps, 0, nbSamples);
+                long coloringStart = System.nanoTime();
+                kernelNanos += coloringStart - kernelStart;
+                nbComputed += nbSamples;
+
+                for (int i = 0; i < nbSamples; i++) {
+                    int index = line * lineWidth + sampleCols[i];
+                    job.buffer.steps[index] = sampleSteps[i];
+                    job.buffer.norms[index] = sampleNorms[i];
+                    int rgb = job.world.colorOf(sampleSteps[i], sampleNorms[i]);
+                    job.target.pixels[index] = rgb;
+                    if (step > 1 && !job.overPreview) {
+                        fillMissingPixels(sampleCols[i], line, step, rgb);
+                    }
+                }
+                coloringNanos += System.nanoTime() - coloringStart;
+            }
+        }
+
+        /**
+         * Paint the pixels of a square that are not computed yet. The square
+         * is clipped to the tile: the pixels of the other tiles may be final
+         * already. The first samples of the tile also cover the pixels between
+         * them and its left or top side, which are not aligned on the step
+         * when the tile only holds the missing pixels.
+         *
+         * @param x
+         * @param y
+         * @param side
+         * @param rgb
+         */
+        private void fillMissingPixels(int x, int y, int side, int rgb) {
+            int[] steps = job.buffer.steps;
+            int lineWidth = job.viewport.width;
+            int colStart = x - side < xStart ? xStart : x;
+            int lineStart = y - side < yStart ? yStart : y;
+            int colEnd = Math.min(x + side, xStart + width);
+            int lineEnd = Math.min(y + side, yStart + height);
+            for (int line = lineStart; line < lineEnd; line++) {
+                for (int index = line * lineWidth + colStart; index < line * lineWidth + colEnd; index++) {
+                    if (steps[index] == IterationBuffer.NOT_COMPUTED) {
+                        job.target.pixels[index] = rgb;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Mariani-Silver: compute the border of the tile, then subdivide it.
+         */
+        private void paintTileBySubdivision() {
+            // The time of the kernel includes the tests of the borders.
+            long kernelStart = System.nanoTime();
+            chooseKernel();
+            double[] xs = getXs();
+            iterateLine(xs, 0, yStart, xStart, width);
+            iterateLine(xs, 0, yStart + height - 1, xStart, width);
+            iterateColumn(xStart, yStart + 1, yStart + height - 1);
+            iterateColumn(xStart + width - 1, yStart + 1, yStart + height - 1);
+            // The border tells how far the inside needs to iterate.
+            chooseKernel();
+
+            subdivide(xs, xStart, yStart, width, height);
+            kernelNanos += System.nanoTime() - kernelStart;
+
+            // Even when the job is cancelled, the pixels that are known must be
+            // colored: the buffer may be reused by the next job.
+            long coloringStart = System.nanoTime();
+            for (int line = yStart; line < yStart + height; line++) {
+                int lineStart = line * job.viewport.width + xStart;
+                job.world.colorize(job.buffer, job.target, lineStart, lineStart + width);
+            }
+            coloringNanos += System.nanoTime() - coloringStart;
+        }
+
+        /**
+         * Fill or split a rectangle whose border is already computed.
+         *
+         * @param xs the real parts of the columns of the tile.
+         * @param x
+         * @param y
+         * @param w
+         * @param h
+         */
+        private void subdivide(double[] xs, int x, int y, int w, int h) {
+            if (job.isCancelled() || w <= 2 || h <= 2) {
+                return;
+            }
+            int[] steps = job.buffer.steps;
+            float[] norms = job.buffer.norms;
+            int lineWidth = job.viewport.width;
+
+            if (w <= MIN_SUBDIVISION || h <= MIN_SUBDIVISION) {
+                // Not worth testing, compute the inside.
+                for (int line = y + 1; line < y + h - 1; line++) {
+                    iterateLine(xs, x + 1 - xStart, line, x + 1, w - 2);
+                }
+                return;
+            }
+
+            // Only the regions of points that never escape are filled: the
+            // escaped points have a modulus, which smooth coloring needs, and
+            // the escape data is cached and recolored with either setting.
+            if (hasUniformBorder(x, y, w, h)) {
+                int value = steps[y * lineWidth + x];
+                for (int line = y + 1; line < y + h - 1; line++) {
+                    int start = line * lineWidth + x + 1;
+                    Arrays.fill(steps, start, start + w - 2, value);
+                    Arrays.fill(norms, start, start + w - 2, Float.NaN);
+                }
+                nbFilled += (long) (w - 2) * (h - 2);
+                return;
+            }
+
+            // Compute a line or a column through the middle, then recurse on
+            // both halves.
+            if (w >= h) {
+                int middle = x + w / 2;
+                iterateColumn(middle, y + 1, y + h - 1);
+                subdivide(xs, x, y, middle - x + 1, h);
+                subdivide(xs, middle, y, x + w - middle, h);
+            } else {
+                int middle = y + h / 2;
+                iterateLine(xs, x + 1 - xStart, middle, x + 1, w - 2);
+                subdivide(xs, x, y, w, middle - y + 1);
+                subdivide(xs, x, middle, w, y + h - middle);
+            }
+        }
+
+        /**
+         * @return true if all the pixels on the border of the rectangle have
+         * the same number of steps and no modulus.
+         */
+        private boolean hasUniformBorder(int x, int y, int w, int h) {
+            int[] steps = job.buffer.steps;
+            float[] norms = job.buffer.norms;
+            int lineWidth = job.viewport.width;
+            int value = steps[y * lineWidth + x];
+
+            int top = y * lineWidth;
+            int bottom = (y + h - 1) * lineWidth;
+            for (int col = x; col < x + w; col++) {
+                if (steps[top + col] != value || steps[bottom + col] != value) {
+                    return false;
+                }
+                if (!Float.isNaN(norms[top + col]) || !Float.isNaN(norms[bottom + col])) {
+                    return false;
+                }
+            }
+            for (int line = y + 1; line < y + h - 1; line++) {
+                int left = line * lineWidth + x;
+                int right = left + w - 1;
+                if (steps[left] != value || steps[right] != value) {
+                    return false;
+                }
+                if (!Float.isNaN(norms[left]) || !Float.isNaN(norms[right])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the coordinates of the columns of the tile, as expected by
+         * the kernel.
+         */
+        private double[] getXs() {
+            double[] xs = new double[width];
+            for (int col = 0; col < width; col++) {
+                xs[col] = getKernelX(xStart + col);
+            }
+            return xs;
+        }
+
+        /**
+         * With automatic steps, choose a kernel with fewer steps when the
+         * pixels of the tile that are already known escape early: the samples
+         * of a coarser level, the border of a Mariani-Silver tile or the pixels
+         * kept from the previous frame. The points that do not escape within a
+         * few times the highest of these escapes are taken as inside the set.
+         */
+        private void chooseKernel() {
+            if (!job.adaptiveSteps) {
+                return;
+            }
+            int[] steps = job.buffer.steps;
+            int highestEscape = -1;
+            for (int line = yStart; line < yStart + height; line++) {
+                int lineStart = line * job.viewport.width;
+                for (int index = lineStart + xStart; index < lineStart + xStart + width; index++) {
+                    if (steps[index] < job.maxSteps && steps[index] > highestEscape) {
+                        highestEscape = steps[index];
+                    }
+                }
+            }
+            if (highestEscape < 0) {
+                // Nothing is known yet.
+                kernel = job.kernel;
+                return;
+            }
+            int tileMaxSteps = MIN_TILE_STEPS;
+            while (tileMaxSteps < ESCAPE_MARGIN * highestEscape) {
+                tileMaxSteps *= 2;
+            }
+            kernel = tileMaxSteps >= job.maxSteps ? job.kernel
+                    : job.kernelsByMaxSteps.computeIfAbsent(tileMaxSteps, job.kernel::withMaxSteps);
+        }
+
+        /**
+         * Count the steps of pixels that were just computed; those that did not
+         * escape with a kernel of fewer steps get the number of steps of the
+         * frame, as if they had been computed with it.
+         *
+         * @param steps
+         * @param start
+         * @param end
+         */
+        private void finishPixels(int[] steps, int start, int end) {
+            int kernelMaxSteps = kernel.getMaxSteps();
+            for (int i = start; i < end; i++) {
+                nbSteps += steps[i];
+                if (steps[i] == kernelMaxSteps) {
+                    steps[i] = job.maxSteps;
+                }
+            }
+        }
+
+        private double getKernelX(int col) {
+            return job.kernel.isRelative() ? job.viewport.getDeltaX(col) : job.viewport.getX(col);
+        }
+
+        private double getKernelY(int line) {
+            return job.kernel.isRelative() ? job.viewport.getDeltaY(line) : job.viewport.getY(line);
+        }
+
+        /**
+         * Compute consecutive pixels of one line.
+         *
+         * @param xs
+         * @param xsOffset index in xs of the real part of the first pixel.
+         * @param line
+         * @param col the first pixel.
+         * @param length
+         */
+        private void iterateLine(double[] xs, int xsOffset, int line, int col, int length) {
+            int[] steps = job.buffer.steps;
+            int start = line * job.viewport.width + col;
+            double y = getKernelY(line);
+            // The pixels that are already known, for instance those kept from
+            // the previous frame, are skipped.
+            int runStart = -1;
+            for (int i = 0; i <= length; i++) {
+                boolean missing = i < length && steps[start + i] == IterationBuffer.NOT_COMPUTED;
+                if (missing && runStart < 0) {
+                    runStart = i;
+                } else if (!missing && runStart >= 0) {
+                    kernel.iterateRow(xs, xsOffset + runStart, y, i - runStart,
+                            steps, job.buffer.norms, start + runStart);
+                    nbComputed += i - runStart;
+                    finishPixels(steps, start + runStart, start + i);
+                    runStart = -1;
+                }
+            }
+        }
+
+        /**
+         * Compute the pixels of one column, from lineStart included to lineEnd
+         * excluded.
+         */
+        private void iterateColumn(int col, int lineStart, int lineEnd) {
+            double x = getKernelX(col);
+            for (int line = lineStart; line < lineEnd; line++) {
+                int index = line * job.viewport.width + col;
+                if (job.buffer.steps[index] == IterationBuffer.NOT_COMPUTED) {
+                    job.buffer.steps[index] = kernel.iterate(x, getKernelY(line), job.buffer.norms, index);
+                    finishPixels(job.buffer.steps, index, index + 1);
+                    nbComputed++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package mandelbrot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * Serve the tiles of the fractals to a map viewer, as PNG images at
+ * /{type}/{z}/{x}/{y}.png on a local port, with the addressing of TileKey.
+ * The escape data of the tiles comes from the tile cache, or is computed by
+ * the tile renderer; the requests for a tile that is already being computed
+ * wait for that render instead of starting another one. At most maxPending
+ * renders may run or wait at once: beyond that, the server answers 503 at once
+ * rather than queueing more work. The counters are served at /metrics.
+ *
+ * @author arthu
+ */
+class TileServer {
+
+    private final TileCache cache;
+    private final TileRenderer renderer;
+    private final Map<World.DrawingType, World> worlds;
+    private final Semaphore admission;
+    // The renders in progress, so that simultaneous requests share them.
+    private final ConcurrentHashMap<TileKey, CompletableFuture<IterationBuffer>> pending;
+    private final ExecutorService executor;
+    private HttpServer server;
+
+    private final AtomicLong nbRequests;
+    private final AtomicLong nbRendered;
+    private final AtomicLong nbCoalesced;
+    private final AtomicLong nbRejected;
+    private final AtomicLong nbFailed;
+
+    /**
+     * @param cache
+     * @param nbThreads the number of threads of the tile renderer.
+     * @param maxPending the number of renders that may run or wait at once.
+     * @param maxSteps
+     * @param ramp the index of the color ramp in World.RAMP_NAMES.
+     * @param smoothColoring
+     */
+    public TileServer(TileCache cache, int nbThreads, int maxPending, int maxSteps, int ramp, boolean smoothColoring) {
+        this.cache = cache;
+        renderer = new TileRenderer(nbThreads);
+        worlds = new EnumMap<>(World.DrawingType.class);
+        for (World.DrawingType type : World.DrawingType.values()) {
+            if (!TileCache.isCacheable(type)) {
+                continue;
+            }
+            World world = new World();
+            world.setType(type);
+            world.setMaxSteps(maxSteps);
+            world.selectRamp(ramp);
+            if (smoothColoring) {
+                world.getColorizer().toggleSmoothColoring();
+                world.setBailoutRadius(World.SMOOTH_BAILOUT_RADIUS);
+            }
+            worlds.put(type, world);
+        }
+        admission = new Semaphore(maxPending);
+        pending = new ConcurrentHashMap<>();
+        executor = createExecutor();
+        nbRequests = new AtomicLong();
+        nbRendered = new AtomicLong();
+        nbCoalesced = new AtomicLong();
+        nbRejected = new AtomicLong();
+        nbFailed = new AtomicLong();
+    }
+
+    /**
+     * @return one virtual thread per request when the JVM has them (Java 21
+     * and later), or else a pool of threads created as needed.
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "tile-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Start listening.
+     *
+     * @param port 0 for any free port.
+     * @return the port.
+     * @throws IOException
+     */
+    int start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            nbRequests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/metrics")) {
+                send(exchange, 200, "text/plain", getMetrics().getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            TileKey key = parse(path);
+            if (key == null) {
+                send(exchange, 404, "text/plain", ("No tile at " + path + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            byte[] png;
+            try {
+                png = encode(worlds.get(key.type), getTile(key));
+            } catch (RejectedExecutionException e) {
+                send(exchange, 503, "text/plain", "Too many tiles to render, try again later.\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            } catch (RuntimeException e) {
+                // Without a response, the client would wait until its timeout.
+                nbFailed.incrementAndGet();
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                System.err.println("Tile " + path + " failed: " + cause);
+                send(exchange, 500, "text/plain", ("Tile " + path + " failed: " + cause + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            send(exchange, 200, "image/png", png);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @param path /{type}/{z}/{x}/{y}.png
+     * @return the key of the tile, or null if the path is not a tile of a
+     * served type.
+     */
+    private TileKey parse(String path) {
+        String[] parts = path.split("/");
+        if (parts.length != 5 || !parts[4].endsWith(".png")) {
+            return null;
+        }
+        World world = null;
+        for (World.DrawingType type : worlds.keySet()) {
+            if (type.name().equalsIgnoreCase(parts[1])) {
+                world = worlds.get(type);
+            }
+        }
+        try {
+            int level = Integer.parseInt(parts[2]);
+            long tileX = Long.parseLong(parts[3]);
+            long tileY = Long.parseLong(parts[4].substring(0, parts[4].length() - 4));
+            if (world == null || level < 0 || level > TileKey.MAX_LEVEL
+                    || tileX < 0 || tileY < 0 || tileX >= 1L << level || tileY >= 1L << level) {
+                return null;
+            }
+            return TileCache.getKey(world, level, tileX, tileY);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param key
+     * @return the escape data of the tile, from the cache or from a render
+     * shared with the other requests for the same tile.
+     * @throws RejectedExecutionException when the tile must be rendered and
+     * too many renders are pending.
+     */
+    IterationBuffer getTile(TileKey key) {
+        CompletableFuture<IterationBuffer> future = new CompletableFuture<>();
+        CompletableFuture<IterationBuffer> existing = pending.putIfAbsent(key, future);
+        if (existing != null) {
+            nbCoalesced.incrementAndGet();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : e;
+            }
+        }
+        try {
+            IterationBuffer tile = cache.get(key);
+            if (tile == null) {
+                tile = render(key);
+            }
+            future.complete(tile);
+            return tile;
+        } catch (RuntimeException | Error e) {
+            // The requests waiting for the same tile fail too.
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            pending.remove(key, future);
+        }
+    }
+
+    private IterationBuffer render(TileKey key) {
+        if (!admission.tryAcquire()) {
+            nbRejected.incrementAndGet();
+            throw new RejectedExecutionException("Too many pending renders");
+        }
+        try {
+            IterationBuffer tile = new IterationBuffer(TileKey.TILE_SIZE, TileKey.TILE_SIZE);
+            RenderTarget target = new RenderTarget(TileKey.TILE_SIZE, TileKey.TILE_SIZE);
+            renderer.render(worlds.get(key.type), key.getViewport(), tile, target).join();
+            cache.put(key, tile);
+            nbRendered.incrementAndGet();
+            return tile;
+        } finally {
+            admission.release();
+        }
+    }
+
+    /**
+     * @param world
+     * @param tile
+     * @return the tile as a PNG image, colored with a copy of the colorizer
+     * of the world: the requests are served by many threads at once.
+     * @throws IOException
+     */
+    private static byte[] encode(World world, IterationBuffer tile) throws IOException {
+        RenderTarget target = new RenderTarget(TileKey.TILE_SIZE, TileKey.TILE_SIZE);
+        world.colorize(tile, target, 0, tile.steps.length, new Colorizer(world.getColorizer()));
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(target.getImage(), "png", png);
+        return png.toByteArray();
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    String getMetrics() {
+        return "requests " + nbRequests.get() + "\n"
+                + "rendered " + nbRendered.get() + "\n"
+                + "coalesced " + nbCoalesced.get() + "\n"
+                + "rejected " + nbRejected.get() + "\n"
+                + "failed " + nbFailed.get() + "\n"
+                + "cache.memoryHits " + cache.getNbMemoryHits() + "\n"
+                + "cache.diskHits " + cache.getNbDiskHits() + "\n"
+                + "cache.misses " + cache.getNbMisses() + "\n"
+                + "cache.memoryBytes " + cache.getMemoryBytes() + "\n";
+    }
+
+    /**
+     * Serve the tiles until the process is stopped.
+     *
+     * @param args
+     */
+    static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int port = 8080;
+        int nbThreads = Runtime.getRuntime().availableProcessors();
+        int maxPending = 0;
+        int maxSteps = 4000;
+        int ramp = 0;
+        boolean smoothColoring = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--smooth")) {
+                    smoothColoring = true;
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value after " + option);
+                }
+                String value = args[++i];
+                switch (option) {
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--threads":
+                    nbThreads = Integer.parseInt(value);
+                    break;
+                case "--max-pending":
+                    maxPending = Integer.parseInt(value);
+                    break;
+                case "--max-steps":
+                    maxSteps = Integer.parseInt(value);
+                    break;
+                case "--palette":
+                    ramp = Arrays.asList(World.RAMP_NAMES).indexOf(value);
+                    if (ramp < 0) {
+                        throw new IllegalArgumentException("Unknown palette: " + value);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option);
+                }
+            }
+            if (nbThreads < 1 || maxSteps < 1 || maxPending < 0) {
+                throw new IllegalArgumentException("The numbers of threads, pending renders and steps must be positive.");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: serve [--port <n>] [--threads <n>] [--max-pending <n>] [--max-steps <n>] [--palette <name>] [--smooth]");
+            System.exit(2);
+        }
+        if (maxPending == 0) {
+            maxPending = 4 * nbThreads;
+        }
+        TileServer server = new TileServer(TileCache.createDefault(), nbThreads, maxPending, maxSteps, ramp, smoothColoring);
+        try {
+            port = server.start(port);
+        } catch (IOException e) {
+            System.err.println("Cannot listen on port " + port + ": " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("Serving tiles at http://localhost:" + port + "/{type}/{z}/{x}/{y}.png");
+    }
+}
@@ -0,0 +1,151 @@
+package mandelbrot;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The suite z(n+1) = z(n)^2 + c computed on several adjacent points of a line
+ * at once, with the Vector API. Lanes whose suite escaped stop changing while
+ * the others go on; the results are the same as the ones of MandelbrotKernel.
+ *
+ * This class needs the jdk.incubator.vector module; it is only loaded through
+ * MandelbrotKernel.createFastest.
+ *
+ * @author arthu
+ */
+class VectorMandelbrotKernel implements FractalKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    // The steps then the norms of the lanes, stored by each thread before they
+    // are copied into the buffer. The vector API has no cheap conversion of a
+    // double vector into an int vector of the same length.
+    private static final ThreadLocal<double[]> LANE_RESULTS
+            = ThreadLocal.withInitial(() -> new double[2 * SPECIES.length()]);
+
+    private final int maxSteps;
+    private final double bailoutRadius;
+    // Used for single points and for the end of the lines.
+    private final MandelbrotKernel scalarKernel;
+
+    public VectorMandelbrotKernel(int maxSteps, double bailoutRadius) {
+        this.maxSteps = maxSteps;
+        this.bailoutRadius = bailoutRadius;
+        scalarKernel = new MandelbrotKernel(maxSteps, bailoutRadius);
+    }
+
+    @Override
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    @Override
+    public FractalKernel withMaxSteps(int newMaxSteps) {
+        return new VectorMandelbrotKernel(newMaxSteps, bailoutRadius);
+    }
+
+    @Override
+    public int iterate(double x, double y, float[] norms, int index) {
+        return scalarKernel.iterate(x, y, norms, index);
+    }
+
+    @Override
+    public void iterateRow(double[] xs, int xsOffset, double y, int length, int[] steps, float[] norms, int offset) {
+        int lanes = SPECIES.length();
+        double[] laneResults = LANE_RESULTS.get();
+
+        int i = 0;
+        for (; i + lanes <= length; i += lanes) {
+            iterateLanes(xs, xsOffset + i, y, laneResults);
+            for (int lane = 0; lane < lanes; lane++) {
+                steps[offset + i + lane] = (int) laneResults[lane];
+                norms[offset + i + lane] = (float) laneResults[lanes + lane];
+            }
+        }
+        // Remaining points, fewer than one vector.
+        for (; i < length; i++) {
+            steps[offset + i] = scalarKernel.iterate(xs[xsOffset + i], y, norms, offset + i);
+        }
+    }
+
+    /**
+     * Iterate one vector of points.
+     *
+     * @param xs
+     * @param xsIndex index of the first real part in xs.
+     * @param y
+     * @param laneResults receives the number of steps of each lane, then the
+     * squared modulus of each lane, NaN for points that never escape.
+     */
+    private void iterateLanes(double[] xs, int xsIndex, double y, double[] laneResults) {
+        DoubleVector xC = DoubleVector.fromArray(SPECIES, xs, xsIndex);
+        DoubleVector yC = DoubleVector.broadcast(SPECIES, y);
+        DoubleVector max = DoubleVector.broadcast(SPECIES, maxSteps);
+
+        // Points of the main cardioid or of the period-2 bulb are done at once.
+        DoubleVector y2 = yC.mul(yC);
+        DoubleVector xShifted = xC.sub(0.25);
+        DoubleVector q = xShifted.mul(xShifted).add(y2);
+        VectorMask<Double> interior = q.mul(q.add(xShifted)).compare(VectorOperators.LT, y2.mul(0.25));
+        DoubleVector xBulb = xC.add(1);
+        interior = interior.or(xBulb.mul(xBulb).add(y2).compare(VectorOperators.LT, 0.0625));
+
+        // A lane is active while its squared modulus stays below its bailout.
+        // Lanes that never escape are made inactive by giving them a negative
+        // bailout, and get maxSteps.
+        DoubleVector bailoutSquared = DoubleVector.broadcast(SPECIES, bailoutRadius * bailoutRadius)
+                .blend(-1, interior);
+        DoubleVector xCurrent = DoubleVector.zero(SPECIES);
+        DoubleVector yCurrent = DoubleVector.zero(SPECIES);
+        DoubleVector xSquared = DoubleVector.zero(SPECIES);
+        DoubleVector ySquared = DoubleVector.zero(SPECIES);
+        DoubleVector step = DoubleVector.zero(SPECIES).blend(max, interior);
+
+        // Brent's cycle detection, see MandelbrotKernel. All the lanes start
+        // together, so they share the same schedule. The saved point is
+        // updated with a blend rather than in a branch, which lets the JIT keep
+        // the vectors in registers instead of boxing them.
+        DoubleVector xSaved = DoubleVector.zero(SPECIES);
+        DoubleVector ySaved = DoubleVector.zero(SPECIES);
+        int period = 0;
+        int periodLimit = 1;
+
+        int stepCount = 0;
+        while (stepCount < maxSteps) {
+            VectorMask<Double> active = xSquared.add(ySquared).compare(VectorOperators.LE, bailoutSquared);
+            if (!active.anyTrue()) {
+                break;
+            }
+            DoubleVector yNext = xCurrent.mul(2).mul(yCurrent).add(yC);
+            DoubleVector xNext = xSquared.sub(ySquared).add(xC);
+            xCurrent = xCurrent.blend(xNext, active);
+            yCurrent = yCurrent.blend(yNext, active);
+            xSquared = xCurrent.mul(xCurrent);
+            ySquared = yCurrent.mul(yCurrent);
+            step = step.add(1, active);
+            stepCount++;
+
+            VectorMask<Double> cycle = xCurrent.compare(VectorOperators.EQ, xSaved)
+                    .and(yCurrent.compare(VectorOperators.EQ, ySaved)).and(active);
+            step = step.blend(max, cycle);
+            bailoutSquared = bailoutSquared.blend(-1, cycle);
+
+            period++;
+            boolean save = period == periodLimit;
+            VectorMask<Double> saveMask = SPECIES.maskAll(save);
+            xSaved = xSaved.blend(xCurrent, saveMask);
+            ySaved = ySaved.blend(yCurrent, saveMask);
+            if (save) {
+                period = 0;
+                periodLimit *= 2;
+            }
+        }
+
+        // The points that never escape have no meaningful modulus.
+        DoubleVector norm = xSquared.add(ySquared);
+        norm = norm.blend(Double.NaN, step.compare(VectorOperators.GE, max));
+        step.intoArray(laneResults, 0);
+        norm.intoArray(laneResults, SPECIES.length());
+    }
+}
@@ -0,0 +1,139 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * The part of the world that is shown on screen.
+ * Pixel (col, line) shows the point ((col - x0) / zoom, (height - line - y0) /
+ * zoom), the same mapping as the one used by the painting methods of World.
+ *
+ * The origin (x0, y0) is kept with arbitrary precision: once the zoom is deep,
+ * its value has more digits than a double can hold. Deep viewports are then
+ * described as a center with arbitrary precision plus offsets in double.
+ *
+ * @author arthu
+ */
+class Viewport {
+
+    // Beyond this zoom, neighbouring pixels are no longer distinct doubles.
+    static final double DEEP_ZOOM = 1e11;
+
+    final int width;
+    final int height;
+    // Approximations of the origin, good enough when the viewport is not deep.
+    final double x0;
+    final double y0;
+    final double zoom;
+
+    private final BigDecimal exactX0;
+    private final BigDecimal exactY0;
+
+    public Viewport(int width, int height, double x0, double y0, double zoom) {
+        this(width, height, new BigDecimal(x0), new BigDecimal(y0), zoom);
+    }
+
+    public Viewport(int width, int height, BigDecimal x0, BigDecimal y0, double zoom) {
+        this.width = width;
+        this.height = height;
+        this.exactX0 = x0;
+        this.exactY0 = y0;
+        this.x0 = x0.doubleValue();
+        this.y0 = y0.doubleValue();
+        this.zoom = zoom;
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @param xCenter the real part of the point shown at the center.
+     * @param yCenter the imaginary part of the point shown at the center.
+     * @param zoom
+     * @return the viewport centered on the point.
+     */
+    static Viewport centeredOn(int width, int height, BigDecimal xCenter, BigDecimal yCenter, double zoom) {
+        MathContext mc = getMathContext(zoom);
+        BigDecimal exactZoom = new BigDecimal(zoom);
+        BigDecimal x0 = new BigDecimal(width / 2.0).subtract(xCenter.multiply(exactZoom, mc), mc);
+        BigDecimal y0 = new BigDecimal(height / 2.0).subtract(yCenter.multiply(exactZoom, mc), mc);
+        return new Viewport(width, height, x0, y0, zoom);
+    }
+
+    /**
+     * @param lineStart
+     * @param nbLines
+     * @return the viewport that shows nbLines lines of this one, starting at
+     * lineStart.
+     */
+    Viewport getStrip(int lineStart, int nbLines) {
+        BigDecimal stripY0 = exactY0.subtract(BigDecimal.valueOf((long) height - lineStart - nbLines));
+        return new Viewport(width, nbLines, exactX0, stripY0, zoom);
+    }
+
+    /**
+     * @param zoom
+     * @return the precision needed to compute the origin or the center of a
+     * viewport at this zoom, with a few digits to spare.
+     */
+    static MathContext getMathContext(double zoom) {
+        int digits = 20 + (int) Math.max(0, Math.log10(zoom));
+        return new MathContext(Math.max(digits, 34));
+    }
+
+    double getX(int col) {
+        return (col - x0) / zoom;
+    }
+
+    double getY(int line) {
+        return (height - line - y0) / zoom;
+    }
+
+    int getNbPixels() {
+        return width * height;
+    }
+
+    boolean isDeep() {
+        return zoom > DEEP_ZOOM;
+    }
+
+    BigDecimal getExactX0() {
+        return exactX0;
+    }
+
+    BigDecimal getExactY0() {
+        return exactY0;
+    }
+
+    /**
+     * @return the real part of the point at the center of the viewport.
+     */
+    BigDecimal getCenterX() {
+        MathContext mc = getMathContext(zoom);
+        return new BigDecimal(width / 2.0).subtract(exactX0).divide(new BigDecimal(zoom), mc);
+    }
+
+    /**
+     * @return the imaginary part of the point at the center of the viewport.
+     */
+    BigDecimal getCenterY() {
+        MathContext mc = getMathContext(zoom);
+        return new BigDecimal(height / 2.0).subtract(exactY0).divide(new BigDecimal(zoom), mc);
+    }
+
+    /**
+     * @param col
+     * @return the real offset between the point of the column and the center.
+     */
+    double getDeltaX(int col) {
+        return (col - width / 2.0) / zoom;
+    }
+
+    /**
+     * @param line
+     * @return the imaginary offset between the point of the line and the
+     * center.
+     */
+    double getDeltaY(int line) {
+        return (height / 2.0 - line) / zoom;
+    }
+}
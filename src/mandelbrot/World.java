@@ -11,39 +11,88 @@ import colorramp.ColorRamp;
  */
 class World {
 
-    int currentStep;
     private DrawingType currentDrawingType = DrawingType.MANDELBROT;
 
     DrawingType getType() {
         return currentDrawingType;
     }
 
+    void setType(DrawingType newType) {
+        if (newType == DrawingType.FORMULA && formula == null) {
+            // Compiled when first needed, it takes a while.
+            formula = CompiledFormula.compile(DEFAULT_FORMULA);
+        }
+        currentDrawingType = newType;
+        updateKernel();
+    }
+
+    /**
+     * Tell whether a region whose border pixels all have the same number of
+     * steps may be filled without computing its inside. This holds for the
+     * Mandelbrot and Multibrot sets, which are connected and have no holes.
+     *
+     * @return true for the Mandelbrot and Multibrot sets.
+     */
+    boolean allowsUniformFill() {
+        return currentDrawingType == DrawingType.MANDELBROT || currentDrawingType == DrawingType.MULTIBROT;
+    }
+
     enum DrawingType {
         FLAT,
         HYPERBOLIC,
         MANDELBROT,
         TETRATION,
-        HEART
+        TETRATION_SQRT2,
+        HEART,
+        JULIA,
+        BURNING_SHIP,
+        MULTIBROT,
+        FORMULA
     }
 
-    /**
-     * First pass, resolution is set to its default value, so only a few lines
-     * are displayed.
-     * For every next pass, the resolution is increased by one, and each line is
-     * split in two, so we draw twice as many lines as before.
-     */
-    private int chunkResolution;
-    private int chunkHeight; // 0 if not set, or the actual nb of pixel lines of one chunk;
-
-    private int lastLine;
-
-    private ColorRamp ramp;
+    private ColorRamp[] ramps;
+    static final String[] RAMP_NAMES = {"default", "fire", "ice"};
+    private int currentRamp;
+    private Colorizer colorizer;
     int maxSteps;
 
-    public World() {
-        currentStep = 0;
+    // The suite of the Mandelbrot set escapes once its modulus reaches this
+    // value; smooth coloring looks better with a large radius.
+    private double bailoutRadius;
+    static final double DEFAULT_BAILOUT_RADIUS = 2;
+    static final double SMOOTH_BAILOUT_RADIUS = 256;
+
+    // The color ramps are designed for this number of steps, they are
+    // stretched to the actual one.
+    private static final int MANDELBROT_MAX_STEPS = 4000;
+    // With automatic steps, the number of steps needed each time the zoom
+    // doubles from the view of the whole set.
+    private static final int AUTO_STEPS_PER_OCTAVE = 150;
+    // When true, the number of steps follows the depth of the view, and the
+    // tiles may use fewer steps where the escapes around them allow it.
+    private boolean autoMaxSteps;
+    // The kernel of the current type, for the viewports that do not need
+    // more precision than doubles.
+    private FractalKernel kernel;
+    // The constant of the Julia set, and the degree of the Multibrot set.
+    private double juliaX;
+    private double juliaY;
+    private int multibrotDegree;
+    // The formula of the FORMULA type, null until that type is used.
+    private CompiledFormula formula;
+    static final String DEFAULT_FORMULA = "z^2 + c";
+    // The last deep kernel, kept for the next viewports around the same
+    // center, as the frames of a zoom sequence.
+    private volatile PerturbationKernel perturbationKernel;
+
+    // FLAT and HYPERBOLIC store one of these indexes instead of a number of steps.
+    static final int RED = 0;
+    static final int BLUE = 1;
+    static final int GRAY = 2;
+    private static final int[] FLAT_COLORS = {Color.red.getRGB(), Color.blue.getRGB(), Color.gray.getRGB()};
 
-        ramp = new ColorRamp();
+    public World() {
+        ColorRamp ramp = new ColorRamp();
 
         Color gold = new Color(252, 194, 1);
 
@@ -57,209 +106,279 @@ class World {
         ramp.addValue(3700, Color.red);
         ramp.addValue(4000, Color.black);
 
-        maxSteps = 4000;
-
-        lastLine = 0;
+        // Fire: from dark red to white, for the escaped points.
+        ColorRamp fire = new ColorRamp();
+        fire.addValue(0, Color.black);
+        fire.addValue(30, new Color(128, 0, 0));
+        fire.addValue(100, Color.red);
+        fire.addValue(400, Color.orange);
+        fire.addValue(1500, Color.yellow);
+        fire.addValue(3999, Color.white);
+        fire.addValue(4000, Color.black);
+
+        // Ice: shades of blue.
+        ColorRamp ice = new ColorRamp();
+        ice.addValue(0, new Color(0, 0, 48));
+        ice.addValue(50, new Color(0, 96, 192));
+        ice.addValue(300, Color.cyan);
+        ice.addValue(3999, Color.white);
+        ice.addValue(4000, Color.black);
+
+        ramps = new ColorRamp[]{ramp, fire, ice};
+        currentRamp = 0;
+
+        maxSteps = MANDELBROT_MAX_STEPS;
+        bailoutRadius = DEFAULT_BAILOUT_RADIUS;
+        juliaX = -0.8;
+        juliaY = 0.156;
+        multibrotDegree = 3;
+        updateKernel();
+        colorizer = new Colorizer(createPalette(ramp));
     }
 
-    public void paint(Graphics g, double x0, double y0, double zoom) {
-
-        paintCenter(g, x0, y0, zoom);
-        paintDots(g, x0, y0, zoom);
+    private Palette createPalette(ColorRamp ramp) {
+        return new Palette(ramp, maxSteps, MANDELBROT_MAX_STEPS);
     }
 
     /**
-     * Paint several rows of the image.
-     * Each step corresponds to a batch of rows. First batch starts at the top
-     * left pixel and spans over several rows, second batch follows. Combined,
-     * all batches make up for the whole image.
+     * Use a new color ramp; the palette is rebuilt.
      *
-     * @param g
-     * @param x0
-     * @param y0
-     * @param zoom
-     * @param currentStep
+     * @param newRamp
      */
-    public void paintStepRow(Graphics g, double x0, double y0, double zoom) {
-
-        int nbSteps = g.getClipBounds().height / chunkResolution;
-
-        if (currentStep < nbSteps) {
-            int nbPixels = g.getClipBounds().height * g.getClipBounds().width;
-
-            final int startPixel = nbPixels * currentStep / nbSteps;
-            final int endPixel = nbPixels * (currentStep + 1) / nbSteps;
-
-            for (int pixelIndex = startPixel; pixelIndex < endPixel; pixelIndex++) {
-                // Find the coordinates of pixel numbered pixelIndex.
-                int width = g.getClipBounds().width;
-                int height = g.getClipBounds().height;
-                int line = pixelIndex / width;
-                int col = pixelIndex - line * width;
+    void setRamp(ColorRamp newRamp) {
+        ramps[currentRamp] = newRamp;
+        colorizer.setPalette(createPalette(newRamp));
+    }
 
-                // Draw the pixel at (line, col);
-                double xReal = (col - x0) / zoom;
-                double yReal = (height - line - y0) / zoom;
-                g.setColor(getColor(xReal, yReal));
-                g.drawRect(col, line, 1, 1);
-            }
-            if (10 * (currentStep / 10) == currentStep) {
-                System.out.println("Painted step " + currentStep);
-            }
-        }
-        currentStep++;
+    /**
+     * Switch to the next color ramp.
+     */
+    void nextRamp() {
+        selectRamp((currentRamp + 1) % ramps.length);
     }
 
-    void resetStep() {
-        currentStep = 0;
-        chunkResolution = 1;
-        chunkHeight = -1; // -1 means "not set", 1 or 0 mean "highest resolution"
+    /**
+     * @param index the index of the ramp in RAMP_NAMES.
+     */
+    void selectRamp(int index) {
+        currentRamp = index;
+        colorizer.setPalette(createPalette(ramps[currentRamp]));
     }
 
     /**
-     * Paint one row of the drawing; the position and width of the row are given
-     * by the tree.
+     * Change the maximum number of steps of the Mandelbrot set, which stops
+     * following the view; the kernel and the palette are rebuilt.
      *
-     * @param g
-     * @param x0
-     * @param y0
-     * @param zoom
-     * @param level
+     * @param newMaxSteps
      */
-    public void paintAdaptiveStepRow(Graphics g, double x0, double y0, double zoom) {
-
-        int height = g.getClipBounds().height;
-        int width = g.getClipBounds().width;
-
-        if (chunkHeight < 0) {
-            chunkHeight = height / 20;
-        }
+    void setMaxSteps(int newMaxSteps) {
+        autoMaxSteps = false;
+        changeMaxSteps(newMaxSteps);
+    }
 
-        if (chunkHeight >= 1) {
+    private void changeMaxSteps(int newMaxSteps) {
+        maxSteps = newMaxSteps;
+        updateKernel();
+        colorizer.setPalette(createPalette(ramps[currentRamp]));
+    }
 
-            int nbChunks = g.getClipBounds().height / chunkHeight;
+    /**
+     * @return the number of steps of the kernel of the current type; the
+     * tetrations and the flat types choose their own instead of maxSteps.
+     */
+    int getKernelMaxSteps() {
+        return kernel.getMaxSteps();
+    }
 
-            for (int chunkIndex = 0; chunkIndex < nbChunks; chunkIndex++) {
-                // Draw the n-th chunk using rectangles that are one pixel wide.
-                for (int col = 0; col < width; col++) {
+    boolean usesAutoMaxSteps() {
+        return autoMaxSteps;
+    }
 
-                    double xReal = (col - x0) / zoom;
-                    int yAppCenter = (int) ((0.5 + chunkIndex) * chunkHeight);
-                    double yReal = (height - yAppCenter - y0) / zoom;
-                    g.setColor(getColor(xReal, yReal));
-                    int xAppCorner = col;
-                    int yAppCorner = chunkIndex * chunkHeight;
-                    g.drawLine(xAppCorner, yAppCorner, xAppCorner, yAppCorner + g.getClipBounds().height / nbChunks);
-                }
-            }
-            chunkHeight = chunkHeight / 2;
+    /**
+     * Let the number of steps follow the view, or go back to the default one.
+     *
+     * @param auto
+     */
+    void setAutoMaxSteps(boolean auto) {
+        autoMaxSteps = auto;
+        if (!auto) {
+            changeMaxSteps(MANDELBROT_MAX_STEPS);
         }
-        // If size of chunk is lower than one,
-        // then we have already drawn everything with the highest possible resolution.
     }
 
     /**
-     * Paint the Mandelbrot set with increasing resolution, using square chunks.
+     * With automatic steps, choose the number of steps of a viewport: the
+     * default one for shallow views, then twice as many each time the depth
+     * needs more, so that the palette and the cached tiles do not change at
+     * each frame.
      *
-     * @param g
-     * @param x0
-     * @param y0
-     * @param zoom
+     * @param viewport
+     * @return true if the number of steps changed; the escape data computed
+     * before no longer match it.
      */
-    public void paintAdaptiveStepSquares(Graphics g, double x0, double y0, double zoom) {
-
-        int height = g.getClipBounds().height;
-        int width = g.getClipBounds().width;
-
-        if (chunkHeight < 0) {
-            chunkHeight = height / 20;
+    boolean adaptMaxSteps(Viewport viewport) {
+        if (!autoMaxSteps) {
+            return false;
         }
+        // The whole set is about 4 units wide.
+        double octaves = Math.max(0, Math.log(viewport.zoom * 4 / viewport.width) / Math.log(2));
+        int newMaxSteps = MANDELBROT_MAX_STEPS;
+        while (newMaxSteps < AUTO_STEPS_PER_OCTAVE * octaves) {
+            newMaxSteps *= 2;
+        }
+        if (newMaxSteps == maxSteps) {
+            return false;
+        }
+        changeMaxSteps(newMaxSteps);
+        return true;
+    }
 
-        if (chunkHeight >= 1) {
-            System.out.println("Chunk size: " + chunkHeight);
-
-            int nbLines = height / chunkHeight;
-            int nbCols = width / chunkHeight;
-
-            for (int line = 0; line < nbLines; line++) {
-
-                for (int col = 0; col < nbCols; col++) {
+    double getBailoutRadius() {
+        return bailoutRadius;
+    }
 
-                    int xAppCenter = (int) ((0.5 + col) * chunkHeight);
-                    double xReal = (xAppCenter - x0) / zoom;
+    void setBailoutRadius(double newBailoutRadius) {
+        bailoutRadius = newBailoutRadius;
+        updateKernel();
+    }
 
-                    int yAppCenter = (int) ((0.5 + line) * chunkHeight);
-                    double yReal = (height - yAppCenter - y0) / zoom;
+    /**
+     * @param x
+     * @param y
+     */
+    void setJuliaConstant(double x, double y) {
+        juliaX = x;
+        juliaY = y;
+        updateKernel();
+    }
 
-                    g.setColor(getColor(xReal, yReal));
-                    int xAppCorner = col * chunkHeight;
-                    int yAppCorner = line * chunkHeight;
-                    g.fillRect(xAppCorner, yAppCorner, chunkHeight, chunkHeight);
-                }
-            }
-            chunkHeight = chunkHeight / 2;
+    /**
+     * @param degree at least 2.
+     */
+    void setMultibrotDegree(int degree) {
+        if (degree < 2) {
+            throw new IllegalArgumentException("The degree must be at least 2: " + degree);
         }
-        // If size of chunk is lower than one,
-        // then we have already drawn everything with the highest possible resolution.
+        multibrotDegree = degree;
+        updateKernel();
     }
 
-    public void paintWithTimeLimit(Graphics g, double x0, double y0, double zoom) {
-        long startDate = System.currentTimeMillis();
-        long maxDrawingDuration = 300;
+    String getFormula() {
+        return formula == null ? DEFAULT_FORMULA : formula.getText();
+    }
 
-        int height = g.getClipBounds().height;
-        int width = g.getClipBounds().width;
+    /**
+     * Compile the iteration formula of the FORMULA type.
+     *
+     * @param text the formula, as "z = z^3 + c*sin(z)".
+     * @throws IllegalArgumentException if the formula is not valid.
+     * @throws IllegalStateException if it cannot be compiled on this JVM.
+     */
+    void setFormula(String text) {
+        formula = CompiledFormula.compile(text);
+        updateKernel();
+    }
 
-        if (chunkHeight < 0) {
-            chunkHeight = height / 20;
+    private void updateKernel() {
+        switch (currentDrawingType) {
+        case FLAT:
+            kernel = new FlatKernel();
+            break;
+        case HYPERBOLIC:
+            kernel = new HyperbolicKernel();
+            break;
+        case TETRATION:
+            kernel = new TetrationKernel(TetrationKernel.MAX_STEPS);
+            break;
+        case TETRATION_SQRT2:
+            kernel = new Sqrt2TetrationKernel(Sqrt2TetrationKernel.MAX_STEPS);
+            break;
+        case HEART:
+            kernel = new HeartKernel(maxSteps);
+            break;
+        case JULIA:
+            kernel = new JuliaKernel(juliaX, juliaY, maxSteps, bailoutRadius);
+            break;
+        case BURNING_SHIP:
+            kernel = new BurningShipKernel(maxSteps, bailoutRadius);
+            break;
+        case MULTIBROT:
+            kernel = new MultibrotKernel(multibrotDegree, maxSteps, bailoutRadius);
+            break;
+        case FORMULA:
+            kernel = formula.createKernel(maxSteps, bailoutRadius);
+            break;
+        default:
+            kernel = MandelbrotKernel.createFastest(maxSteps, bailoutRadius);
+            break;
         }
+    }
 
-        if (chunkHeight >= 1) {
-
-            int nbLines = height / chunkHeight;
-            int nbCols = width / chunkHeight;
-
-            int line = lastLine;
-            boolean keepPainting = true;
-            while (keepPainting) {
-
-                for (int col = 0; col <= nbCols; col++) {
-                    int xAppCenter = (int) ((0.5 + col) * chunkHeight);
-                    double xReal = (xAppCenter - x0) / zoom;
-
-                    int yAppCenter = (int) ((0.5 + line) * chunkHeight);
-                    double yReal = (height - yAppCenter - y0) / zoom;
-
-                    Color c = getColor(xReal, yReal);
-//                    System.out.println("(" + xReal + ", " + yReal + "): " + c);
-                    g.setColor(c);
-                    int xAppCorner = col * chunkHeight;
-                    int yAppCorner = line * chunkHeight;
-                    g.fillRect(xAppCorner, yAppCorner, chunkHeight, chunkHeight);
-                }
+    Colorizer getColorizer() {
+        return colorizer;
+    }
 
-                if (System.currentTimeMillis() > startDate + maxDrawingDuration) {
-                    keepPainting = false;
-                    // Next time, start where we left off with the same resolution.
-                    lastLine = line;
-                }
+    /**
+     * @param steps
+     * @param norm
+     * @return the color of a pixel with this escape data, as a packed RGB
+     * value.
+     */
+    int colorOf(int steps, float norm) {
+        if (currentDrawingType == DrawingType.FLAT || currentDrawingType == DrawingType.HYPERBOLIC) {
+            return steps < 0 ? 0 : FLAT_COLORS[steps];
+        }
+        return colorizer.getRGB(steps, norm);
+    }
 
-                if (line >= nbLines) {
-                    keepPainting = false;
-                    // Next time, restart from scratch with a better resolution.
-                    lastLine = 0;
-                    chunkHeight = chunkHeight / 2;
-                }
+    /**
+     * Color a range of pixels from their escape data, without iterating.
+     *
+     * @param buffer
+     * @param target an image of the same size as the buffer.
+     * @param start index of the first pixel.
+     * @param end index after the last pixel.
+     */
+    void colorize(IterationBuffer buffer, RenderTarget target, int start, int end) {
+        colorize(buffer, target, start, end, colorizer);
+    }
 
-                line++;
+    /**
+     * Color a range of pixels with another colorizer than the one of the
+     * world, such as a copy owned by a thread.
+     *
+     * @param buffer
+     * @param target
+     * @param start
+     * @param end
+     * @param pixelColorizer used for the types that have a palette.
+     */
+    void colorize(IterationBuffer buffer, RenderTarget target, int start, int end, Colorizer pixelColorizer) {
+        if (currentDrawingType == DrawingType.FLAT || currentDrawingType == DrawingType.HYPERBOLIC) {
+            for (int i = start; i < end; i++) {
+                target.pixels[i] = buffer.steps[i] < 0 ? 0 : FLAT_COLORS[buffer.steps[i]];
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                target.pixels[i] = pixelColorizer.getRGB(buffer.steps[i], buffer.norms[i]);
             }
         }
-        // If size of chunk is lower than one,
-        // then we have already drawn everything with the highest possible resolution.
-        paintCenter(g, x0, y0, zoom);
     }
 
-    private void paintCenter(Graphics g, double x0, double y0, double zoom) {
+    /**
+     * Color the whole frame, after computing its histogram if needed.
+     *
+     * @param buffer
+     * @param target
+     */
+    void colorize(IterationBuffer buffer, RenderTarget target) {
+        if (colorizer.usesHistogramEqualization()) {
+            colorizer.equalize(buffer);
+        }
+        colorize(buffer, target, 0, buffer.steps.length);
+    }
+
+    void paintCenter(Graphics g, double x0, double y0, double zoom) {
         g.setColor(Color.black);
         int h = g.getClipBounds().height;
         g.drawLine((int) x0, (int) (h - y0), (int) (x0 + zoom), (int) (h - y0));
@@ -282,161 +401,27 @@ class World {
     }
 
     /**
-     * Randomly choose points on the screen and paint them.
+     * Choose the kernel that computes the current type in the viewport.
+     * Deep Mandelbrot viewports get a perturbation kernel built around their
+     * center, which must be computed with arbitrary precision first; the
+     * previous one is reused when it suits the viewport.
      *
-     * @param g
-     * @param x0
-     * @param y0
-     * @param zoom
+     * @param viewport
+     * @return the kernel.
      */
-    private void paintDots(Graphics g, double x0, double y0, double zoom) {
-        System.out.println("paintDots");
-        // Choose the coordinates
-        int w = g.getClipBounds().width;
-        int h = g.getClipBounds().height;
-
-        // Paint each pixel
-        for (int col = 0; col < w; col++) {
-            for (int line = 0; line < h; line++) {
-                double xReal = (col - x0) / zoom;
-                double yReal = (h - line - y0) / zoom;
-                g.setColor(getColor(xReal, yReal));
-                g.drawRect(col, line, 1, 1);
-            }
-        }
-    }
-
-    /**
-     * Choose the color of the dot based on its position,
-     * and the convergence of the operation.
-     *
-     * @param x
-     * @param y
-     * @return a color that depends on the convergence of the suite.
-     */
-    public Color getColor(double x, double y) {
-//        System.out.println("getColor");
-        boolean xIsEven;
-        boolean yIsEven;
-        int max;
-        double xNext, yNext;
-        int step;
-
-        switch (currentDrawingType) {
-        case FLAT:
-            int xConv = (int) Math.floor(x);
-            int yConv = (int) Math.floor(y);
-
-            if (xConv % 2 == 0 ^ yConv % 2 == 0) {
-                return Color.red;
-            } else {
-                return Color.blue;
-            }
-
-        case HYPERBOLIC:
-            // Hyperbolic space:
-            // First, not hyperbolic
-            double xCurrent = x,
-             yCurrent = y;
-
-            // Second, hyperbolic space
-            // Map the norm of points from [0, 1[ to [0, infinity[
-            double norm = Math.sqrt(x * x + y * y);
-            if (norm > 1) {
-                return Color.gray;
-            }
-            double proportionFactor = 5 / (norm - 1);
-            xCurrent *= proportionFactor;
-            yCurrent *= proportionFactor;
-
-            if (xCurrent < 0) {
-                xCurrent--;
-            }
-            if (yCurrent
-                    < 0) {
-                yCurrent--;
-            }
-            xIsEven = ((((int) xCurrent) / 2) * 2 == (int) xCurrent);
-            yIsEven = ((((int) yCurrent) / 2) * 2 == (int) yCurrent);
-
-            if (xIsEven && yIsEven || (!xIsEven) && (!yIsEven)) {
-                return Color.red;
-            } else {
-                return Color.blue;
-            }
-        case MANDELBROT:
-            // Mandelbrot:
-
-            max = 4000;
-
-            double xC = x;
-            double yC = y;
-
-            xCurrent = 0;
-            yCurrent = 0;
-
-            step = 0;
-            norm = 0;
-            while (step < max && norm < 100) {
-                xNext = xCurrent * xCurrent - yCurrent * yCurrent + xC;
-                yNext = 2 * xCurrent * yCurrent + yC;
-                xCurrent = xNext;
-                yCurrent = yNext;
-                norm = Math.abs(xCurrent + yCurrent);
-                step++;
-            }
-            return ramp.getValue(step);
-
-        case TETRATION:
-            // Mandelbrot:
-            // Limit of convergence; if value goes higher, we consider it does not converge
-            max = 1000;
-
-            xCurrent = 0;
-            yCurrent = 0;
-            step = 0;
-
-            maxSteps = 16;
-
-            while (step < maxSteps && xCurrent * xCurrent + yCurrent * yCurrent < max * max) {
-
-                double x2 = xCurrent * xCurrent;
-                double x3 = x2 * xCurrent;
-                double y2 = yCurrent * yCurrent;
-                double y3 = y2 * yCurrent;
-                double xy = xCurrent * yCurrent;
-
-                double c = Math.sqrt(2);
-                xNext = Math.pow(c, xCurrent) * Math.cos(yCurrent * Math.log(c));
-                yNext = Math.pow(c, xCurrent) * Math.sin(yCurrent * Math.log(c));
-
-                xCurrent = xNext;
-                yCurrent = yNext;
-                step++;
-            }
-            return ramp.getValue(step);
-        case HEART:
-            // Mandelbrot:
-            // Limit of convergence; if value goes higher, we consider it does not converge
-            max = 10000000;
-
-            xCurrent = 0;
-            yCurrent = 0;
-            step = 0;
-            while (step < maxSteps && xCurrent * xCurrent + yCurrent * yCurrent < max * max) {
-
-                // The Heart
-                xNext = xCurrent * xCurrent - yCurrent * yCurrent + x;
-                xNext = xNext * xNext;
-                yNext = 2 * xCurrent * yCurrent + y;
-
-                xCurrent = xNext;
-                yCurrent = yNext;
-                step++;
+    FractalKernel createKernel(Viewport viewport) {
+        if (currentDrawingType == DrawingType.MANDELBROT) {
+            if (viewport.isDeep()) {
+                PerturbationKernel deepKernel = perturbationKernel;
+                if (deepKernel == null || !deepKernel.suits(viewport, maxSteps, bailoutRadius)) {
+                    deepKernel = new PerturbationKernel(viewport.getCenterX(), viewport.getCenterY(),
+                            Viewport.getMathContext(viewport.zoom), maxSteps, bailoutRadius);
+                    perturbationKernel = deepKernel;
+                }
+                return deepKernel;
             }
-            return ramp.getValue(step);
         }
-        return Color.black;
+        return kernel;
     }
 
     void paintRecursionPath(double xInit, double yInit, Graphics g,
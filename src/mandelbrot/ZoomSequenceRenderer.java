@@ -0,0 +1,486 @@
+package mandelbrot;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import javax.imageio.ImageIO;
+
+/**
+ * Render the frames of a zoom toward a point, without any display.
+ * The zoom grows by the same factor from each frame to the next. In the
+ * KEYFRAMES mode, a keyframe larger than the frames by the margin is rendered
+ * for each group of frames whose zooms are within the margin of each other;
+ * the frames of the group are resampled from it, while the next keyframe is
+ * computed. In the EXACT mode every frame is computed at its own zoom, seeded
+ * with the escape data of the previous frame that falls exactly on its pixels.
+ * The frames are written to numbered image files, or to the standard output
+ * as raw RGB for a video encoder.
+ *
+ * @author arthu
+ */
+class ZoomSequenceRenderer {
+
+    enum Mode {
+        KEYFRAMES,
+        EXACT
+    }
+
+    private World.DrawingType type;
+    private BigDecimal xCenter;
+    private BigDecimal yCenter;
+    private double zoomStart;
+    private double zoomEnd;
+    private int nbFrames;
+    private int width;
+    private int height;
+    private double margin;
+    private int maxSteps;
+    private int ramp;
+    private boolean smoothColoring;
+    private TileRenderer.Strategy strategy;
+    private int nbThreads;
+    private Mode mode;
+    // A file name with a format for the frame number, or "-" for the
+    // standard output.
+    private String output;
+
+    // Progress goes to the standard error when the frames go to the
+    // standard output.
+    private PrintStream log;
+    private OutputStream rawOutput;
+    private long nbPixelsComputed;
+
+    public ZoomSequenceRenderer() {
+        type = World.DrawingType.MANDELBROT;
+        xCenter = new BigDecimal("-0.743643887037151");
+        yCenter = new BigDecimal("0.131825904205330");
+        width = 640;
+        height = 480;
+        zoomStart = 0;
+        zoomEnd = 0;
+        nbFrames = 300;
+        margin = 2;
+        maxSteps = 4000;
+        ramp = 0;
+        smoothColoring = false;
+        strategy = TileRenderer.Strategy.MARIANI_SILVER;
+        nbThreads = Runtime.getRuntime().availableProcessors();
+        mode = Mode.KEYFRAMES;
+    }
+
+    /**
+     * Render the sequence described by the arguments; exits with a non-zero
+     * status when they are not valid or when a frame cannot be written.
+     *
+     * @param args
+     */
+    static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        ZoomSequenceRenderer renderer = new ZoomSequenceRenderer();
+        try {
+            renderer.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+        try {
+            renderer.render();
+        } catch (IOException e) {
+            System.err.println("Cannot write the frames: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static void printUsage() {
+        System.err.println("Usage: sequence [options] --output <file pattern>|-");
+        System.err.println("  --type <type>          MANDELBROT, JULIA, BURNING_SHIP, MULTIBROT, TETRATION, TETRATION_SQRT2, HEART, FLAT or HYPERBOLIC (MANDELBROT)");
+        System.err.println("  --center <x>,<y>       point the zoom goes to (the seahorse valley)");
+        System.err.println("  --zoom-start <pixels>  pixels per unit of the first frame (the width shows 4 units)");
+        System.err.println("  --zoom-end <pixels>    pixels per unit of the last frame (1000 times the first one)");
+        System.err.println("  --frames <n>           number of frames (300)");
+        System.err.println("  --size <w>x<h>         size of the frames in pixels (640x480)");
+        System.err.println("  --mode <mode>          KEYFRAMES or EXACT (KEYFRAMES)");
+        System.err.println("  --margin <factor>      size of the keyframes relative to the frames (2)");
+        System.err.println("  --max-steps <n>        maximum number of steps (4000)");
+        System.err.println("  --palette <name>       " + String.join(", ", World.RAMP_NAMES) + " (default)");
+        System.err.println("  --smooth               smooth coloring");
+        System.err.println("  --strategy <strategy>  FULL, MARIANI_SILVER, PROGRESSIVE or PRIORITY (MARIANI_SILVER)");
+        System.err.println("  --threads <n>          number of threads (all the cores)");
+        System.err.println("  --output <pattern>     frame files such as frames/%05d.png, or - for raw RGB on the standard output");
+    }
+
+    void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--smooth")) {
+                smoothColoring = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value after " + option);
+            }
+            String value = args[++i];
+            try {
+                switch (option) {
+                case "--type":
+                    type = World.DrawingType.valueOf(value.toUpperCase());
+                    break;
+                case "--center":
+                    String[] coordinates = value.split(",");
+                    if (coordinates.length != 2) {
+                        throw new IllegalArgumentException("The center must be given as <x>,<y>: " + value);
+                    }
+                    xCenter = new BigDecimal(coordinates[0].trim());
+                    yCenter = new BigDecimal(coordinates[1].trim());
+                    break;
+                case "--zoom-start":
+                    zoomStart = Double.parseDouble(value);
+                    break;
+                case "--zoom-end":
+                    zoomEnd = Double.parseDouble(value);
+                    break;
+                case "--frames":
+                    nbFrames = Integer.parseInt(value);
+                    break;
+                case "--size":
+                    String[] sizes = value.toLowerCase().split("x");
+                    if (sizes.length != 2) {
+                        throw new IllegalArgumentException("The size must be given as <w>x<h>: " + value);
+                    }
+                    width = Integer.parseInt(sizes[0]);
+                    height = Integer.parseInt(sizes[1]);
+                    break;
+                case "--mode":
+                    mode = Mode.valueOf(value.toUpperCase());
+                    break;
+                case "--margin":
+                    margin = Double.parseDouble(value);
+                    break;
+                case "--max-steps":
+                    maxSteps = Integer.parseInt(value);
+                    break;
+                case "--palette":
+                    ramp = Arrays.asList(World.RAMP_NAMES).indexOf(value);
+                    if (ramp < 0) {
+                        throw new IllegalArgumentException("Unknown palette: " + value);
+                    }
+                    break;
+                case "--strategy":
+                    strategy = TileRenderer.Strategy.valueOf(value.toUpperCase());
+                    break;
+                case "--threads":
+                    nbThreads = Integer.parseInt(value);
+                    break;
+                case "--output":
+                    output = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number after " + option + ": " + value);
+            }
+        }
+        if (output == null) {
+            throw new IllegalArgumentException("No output.");
+        }
+        if (!output.equals("-") && !isFramePattern(output)) {
+            throw new IllegalArgumentException("The output needs a format for the frame number, such as frames/%05d.png: "
+                    + output);
+        }
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        }
+        if (nbFrames < 1 || maxSteps < 1 || nbThreads < 1 || zoomStart < 0 || zoomEnd < 0) {
+            throw new IllegalArgumentException("The zooms and the numbers of frames, steps and threads must be positive.");
+        }
+        if (margin < 1 || (long) Math.ceil(width * margin) * (long) Math.ceil(height * margin) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid margin: " + margin);
+        }
+        if (zoomStart == 0) {
+            zoomStart = width / 4.0;
+        }
+        if (zoomEnd == 0) {
+            zoomEnd = zoomStart * 1000;
+        }
+    }
+
+    /**
+     * @param pattern
+     * @return true when the pattern formats the frame number alone, and gives
+     * a different name to each frame.
+     */
+    private static boolean isFramePattern(String pattern) {
+        try {
+            return !String.format(pattern, 0).equals(String.format(pattern, 1));
+        } catch (IllegalFormatException e) {
+            return false;
+        }
+    }
+
+    void render() throws IOException {
+        World world = new World();
+        world.setType(type);
+        world.setMaxSteps(maxSteps);
+        world.selectRamp(ramp);
+        if (smoothColoring) {
+            world.getColorizer().toggleSmoothColoring();
+            world.setBailoutRadius(World.SMOOTH_BAILOUT_RADIUS);
+        }
+        TileRenderer renderer = new TileRenderer(nbThreads);
+        renderer.setStrategy(strategy);
+
+        if (output.equals("-")) {
+            log = System.err;
+            rawOutput = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16);
+        } else {
+            log = System.out;
+        }
+        log.println("Rendering " + nbFrames + " frames of " + width + "x" + height + " " + type + " toward "
+                + xCenter + ", " + yCenter + ", zoom " + zoomStart + " to " + zoomEnd + ", " + mode + " mode.");
+
+        nbPixelsComputed = 0;
+        long start = System.nanoTime();
+        if (mode == Mode.KEYFRAMES) {
+            renderKeyframes(world, renderer);
+        } else {
+            renderExact(world, renderer);
+        }
+        if (rawOutput != null) {
+            rawOutput.flush();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long nbFramePixels = (long) nbFrames * width * height;
+        log.printf("Rendered %d frames in %.2f s, %.2f frames/s; computed %d pixels, %.1f %% of the frame pixels.%n",
+                nbFrames, seconds, nbFrames / seconds, nbPixelsComputed, 100.0 * nbPixelsComputed / nbFramePixels);
+    }
+
+    /**
+     * @param frame
+     * @return the zoom of the frame.
+     */
+    private double getZoom(int frame) {
+        if (nbFrames == 1) {
+            return zoomStart;
+        }
+        return zoomStart * Math.pow(zoomEnd / zoomStart, (double) frame / (nbFrames - 1));
+    }
+
+    /**
+     * Render one keyframe for each group of frames, and resample the frames of
+     * a group while the keyframe of the next one is computed.
+     */
+    private void renderKeyframes(World world, TileRenderer renderer) throws IOException {
+        int keyWidth = (int) Math.ceil(width * margin);
+        int keyHeight = (int) Math.ceil(height * margin);
+        IterationBuffer[] iterations = new IterationBuffer[2];
+        RenderTarget[] keyframes = new RenderTarget[2];
+        RenderTarget frame = new RenderTarget(width, height);
+
+        int groupStart = 0;
+        int groupEnd = getGroupEnd(groupStart);
+        double keyZoom = getKeyframeZoom(groupStart, groupEnd);
+        int current = 0;
+        iterations[current] = new IterationBuffer(keyWidth, keyHeight);
+        keyframes[current] = new RenderTarget(keyWidth, keyHeight);
+        TileRenderer.Job job = renderer.render(world,
+                Viewport.centeredOn(keyWidth, keyHeight, xCenter, yCenter, keyZoom),
+                iterations[current], keyframes[current]);
+        while (groupStart < nbFrames) {
+            job.join();
+            nbPixelsComputed += (long) keyWidth * keyHeight;
+
+            // The next keyframe is computed while this group is written.
+            int nextStart = groupEnd;
+            int nextEnd = nextStart < nbFrames ? getGroupEnd(nextStart) : nbFrames;
+            double nextKeyZoom = 0;
+            int next = 1 - current;
+            if (nextStart < nbFrames) {
+                if (iterations[next] == null) {
+                    iterations[next] = new IterationBuffer(keyWidth, keyHeight);
+                    keyframes[next] = new RenderTarget(keyWidth, keyHeight);
+                } else {
+                    iterations[next].clear();
+                }
+                nextKeyZoom = getKeyframeZoom(nextStart, nextEnd);
+                job = renderer.render(world,
+                        Viewport.centeredOn(keyWidth, keyHeight, xCenter, yCenter, nextKeyZoom),
+                        iterations[next], keyframes[next]);
+            }
+
+            for (int i = groupStart; i < groupEnd; i++) {
+                resample(keyframes[current], keyZoom / getZoom(i), frame);
+                writeFrame(frame, i);
+            }
+            log.println("Frames " + groupStart + " to " + (groupEnd - 1) + " from a keyframe at zoom " + keyZoom);
+
+            groupStart = nextStart;
+            groupEnd = nextEnd;
+            keyZoom = nextKeyZoom;
+            current = next;
+        }
+    }
+
+    /**
+     * @param groupStart the first frame of a group.
+     * @return the frame after the last one of the group: the zooms of the
+     * frames of a group are within the margin of each other.
+     */
+    private int getGroupEnd(int groupStart) {
+        double zoomMin = getZoom(groupStart);
+        double zoomMax = zoomMin;
+        int end = groupStart + 1;
+        while (end < nbFrames) {
+            double zoom = getZoom(end);
+            if (Math.max(zoomMax, zoom) > margin * Math.min(zoomMin, zoom)) {
+                break;
+            }
+            zoomMin = Math.min(zoomMin, zoom);
+            zoomMax = Math.max(zoomMax, zoom);
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * @return the zoom of the keyframe of a group: its pixels are as small as
+     * the pixels of the most zoomed frame, and it covers the least zoomed one.
+     */
+    private double getKeyframeZoom(int groupStart, int groupEnd) {
+        double zoomMin = Double.MAX_VALUE;
+        for (int i = groupStart; i < groupEnd; i++) {
+            zoomMin = Math.min(zoomMin, getZoom(i));
+        }
+        return zoomMin * margin;
+    }
+
+    /**
+     * Compute a frame from a keyframe centered on the same point. Each pixel
+     * averages four bilinear samples spread over the area it covers in the
+     * keyframe.
+     *
+     * @param keyframe
+     * @param scale the ratio between the zoom of the keyframe and the zoom of
+     * the frame, at least 1.
+     * @param frame
+     */
+    private void resample(RenderTarget keyframe, double scale, RenderTarget frame) {
+        double spread = scale / 4;
+        for (int line = 0; line < height; line++) {
+            double keyLine = (line - height / 2.0) * scale + keyframe.height / 2.0;
+            for (int col = 0; col < width; col++) {
+                double keyCol = (col - width / 2.0) * scale + keyframe.width / 2.0;
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                for (int sample = 0; sample < 4; sample++) {
+                    int rgb = sampleBilinear(keyframe,
+                            keyCol + ((sample & 1) == 0 ? -spread : spread),
+                            keyLine + ((sample & 2) == 0 ? -spread : spread));
+                    r += rgb >> 16 & 0xff;
+                    g += rgb >> 8 & 0xff;
+                    b += rgb & 0xff;
+                }
+                frame.pixels[line * width + col] = (r + 2) / 4 << 16 | (g + 2) / 4 << 8 | (b + 2) / 4;
+            }
+        }
+    }
+
+    private static int sampleBilinear(RenderTarget image, double x, double y) {
+        x = Math.max(0, Math.min(image.width - 1, x));
+        y = Math.max(0, Math.min(image.height - 1, y));
+        int x0 = Math.min((int) x, Math.max(image.width - 2, 0));
+        int y0 = Math.min((int) y, Math.max(image.height - 2, 0));
+        int x1 = Math.min(x0 + 1, image.width - 1);
+        int y1 = Math.min(y0 + 1, image.height - 1);
+        double fx = x - x0;
+        double fy = y - y0;
+        int topLeft = image.pixels[y0 * image.width + x0];
+        int topRight = image.pixels[y0 * image.width + x1];
+        int bottomLeft = image.pixels[y1 * image.width + x0];
+        int bottomRight = image.pixels[y1 * image.width + x1];
+        int rgb = 0;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            double top = (topLeft >> shift & 0xff) * (1 - fx) + (topRight >> shift & 0xff) * fx;
+            double bottom = (bottomLeft >> shift & 0xff) * (1 - fx) + (bottomRight >> shift & 0xff) * fx;
+            rgb |= (int) (top * (1 - fy) + bottom * fy + 0.5) << shift;
+        }
+        return rgb;
+    }
+
+    /**
+     * Compute every frame at its own zoom. The escape data of the previous
+     * frame is kept for the pixels that fall exactly on one of its pixels, and
+     * the previous frame is written while the next one is computed.
+     */
+    private void renderExact(World world, TileRenderer renderer) throws IOException {
+        IterationBuffer[] iterations = {new IterationBuffer(width, height), new IterationBuffer(width, height)};
+        RenderTarget[] targets = {new RenderTarget(width, height), new RenderTarget(width, height)};
+        // The zoom keeps the center in place only when it is a pixel.
+        boolean seeded = width % 2 == 0 && height % 2 == 0;
+        int current = 0;
+        for (int i = 0; i < nbFrames; i++) {
+            if (i > 0) {
+                if (seeded) {
+                    iterations[current].zoomFrom(iterations[1 - current], width / 2, height / 2,
+                            getZoom(i) / getZoom(i - 1));
+                } else {
+                    iterations[current].clear();
+                }
+            }
+            for (int step : iterations[current].steps) {
+                if (step == IterationBuffer.NOT_COMPUTED) {
+                    nbPixelsComputed++;
+                }
+            }
+            TileRenderer.Job job = renderer.render(world,
+                    Viewport.centeredOn(width, height, xCenter, yCenter, getZoom(i)),
+                    iterations[current], targets[current]);
+            if (i > 0) {
+                writeFrame(targets[1 - current], i - 1);
+            }
+            job.join();
+            // The pixels that were kept have no color yet.
+            world.colorize(iterations[current], targets[current], 0, width * height);
+            if (i % 10 == 0) {
+                log.println("Frame " + i + " at zoom " + getZoom(i));
+            }
+            current = 1 - current;
+        }
+        writeFrame(targets[1 - current], nbFrames - 1);
+    }
+
+    private void writeFrame(RenderTarget frame, int index) throws IOException {
+        if (rawOutput != null) {
+            byte[] line = new byte[3 * width];
+            for (int l = 0; l < height; l++) {
+                for (int col = 0; col < width; col++) {
+                    int rgb = frame.pixels[l * width + col];
+                    line[3 * col] = (byte) (rgb >> 16);
+                    line[3 * col + 1] = (byte) (rgb >> 8);
+                    line[3 * col + 2] = (byte) rgb;
+                }
+                rawOutput.write(line);
+            }
+            return;
+        }
+        File file = new File(String.format(output, index));
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null) {
+            directory.mkdirs();
+        }
+        String name = file.getName();
+        String format = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        if (!ImageIO.write(frame.getImage(), format, file)) {
+            throw new IOException("No image writer for the format " + format);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * The numbers of steps of the Mandelbrot kernels at known points: inside the
+ * set, where the shortcuts and the cycle detection stop the suite, and near
+ * its boundary, where the suite escapes late. The vector and perturbation
+ * kernels must give the same steps as the scalar one.
+ *
+ * The vector kernel needs the option --add-modules jdk.incubator.vector.
+ *
+ * @author arthu
+ */
+public class KernelRegressionTest {
+
+    private static final int MAX_STEPS = 1000;
+    private static final double BAILOUT_RADIUS = 2;
+
+    // x, y and the number of steps of the point.
+    private static final double[][] KNOWN_POINTS = {
+        // Outside: z = 1, 2, 5.
+        {1, 0, 3},
+        // On the diagonal x = -y, where |x + y| stayed 0 and the suite was
+        // never stopped: z = 1 - i, 1 - 3i.
+        {1, -1, 2},
+        {0.5, 0.5, 5},
+        // Main cardioid and period-2 bulb, found without iterating.
+        {-0.2, 0.1, MAX_STEPS},
+        {-1, 0.1, MAX_STEPS},
+        // Period-3 bulb, found by the cycle detection.
+        {-0.1225, 0.7449, MAX_STEPS},
+        // Near the boundary.
+        {-0.75, 0.1, 33},
+        {-0.75, 0.01, 315},
+        {0.26, 0, 30},
+        {0.2501, 0, 312},
+        {-0.7436, 0.1318, 94},
+        {-1.25, 0.02, 889}
+    };
+
+    @Test
+    public void scalarKernelGivesKnownSteps() {
+        FractalKernel kernel = new MandelbrotKernel(MAX_STEPS, BAILOUT_RADIUS);
+        float[] norms = new float[1];
+        for (double[] point : KNOWN_POINTS) {
+            assertEquals("Steps at " + point[0] + ", " + point[1], (int) point[2],
+                    kernel.iterate(point[0], point[1], norms, 0));
+        }
+    }
+
+    /**
+     * A line of points around each known point, whose length is not a
+     * multiple of the number of lanes so that the end of the line is
+     * computed by the scalar kernel.
+     */
+    @Test
+    public void vectorKernelMatchesScalarKernel() {
+        FractalKernel scalar = new MandelbrotKernel(MAX_STEPS, BAILOUT_RADIUS);
+        FractalKernel vector = new VectorMandelbrotKernel(MAX_STEPS, BAILOUT_RADIUS);
+        int length = 61;
+        double[] xs = new double[length];
+        int[] steps = new int[length];
+        float[] norms = new float[length];
+        float[] scalarNorms = new float[1];
+        for (double[] point : KNOWN_POINTS) {
+            for (int i = 0; i < length; i++) {
+                xs[i] = point[0] + (i - length / 2) * 1e-4;
+            }
+            vector.iterateRow(xs, 0, point[1], length, steps, norms, 0);
+            for (int i = 0; i < length; i++) {
+                String where = "Steps at " + xs[i] + ", " + point[1];
+                assertEquals(where, scalar.iterate(xs[i], point[1], scalarNorms, 0), steps[i]);
+                assertEquals(where, scalarNorms[0], norms[i], 0);
+            }
+        }
+    }
+
+    /**
+     * A square of points around a few known points, computed as offsets from
+     * a reference orbit at the known point.
+     */
+    @Test
+    public void perturbationKernelMatchesScalarKernel() {
+        FractalKernel scalar = new MandelbrotKernel(MAX_STEPS, BAILOUT_RADIUS);
+        float[] norms = new float[1];
+        String[][] centers = {{"-0.75", "0.1"}, {"-0.1225", "0.7449"}, {"-1.25", "0.02"}, {"0.26", "0"}};
+        for (String[] center : centers) {
+            BigDecimal xCenter = new BigDecimal(center[0]);
+            BigDecimal yCenter = new BigDecimal(center[1]);
+            FractalKernel perturbation = new PerturbationKernel(xCenter, yCenter, new MathContext(30),
+                    MAX_STEPS, BAILOUT_RADIUS);
+            for (int line = -8; line <= 8; line++) {
+                for (int col = -8; col <= 8; col++) {
+                    double dx = col * 1e-3;
+                    double dy = line * 1e-3;
+                    double x = xCenter.doubleValue() + dx;
+                    double y = yCenter.doubleValue() + dy;
+                    assertEquals("Steps at " + x + ", " + y, scalar.iterate(x, y, norms, 0),
+                            perturbation.iterate(dx, dy, norms, 0));
+                }
+            }
+        }
+    }
+}